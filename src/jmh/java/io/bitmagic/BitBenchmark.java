@@ -0,0 +1,39 @@
+package io.bitmagic;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-bit access.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitBenchmark {
+  private long _idx = 0;
+
+  private long nextIdx() {
+    // Stride through the span touching a different block each time
+    _idx = (_idx + 65537 * 7) & (VectorState.SPAN - 1);
+    return _idx;
+  }
+
+  @Benchmark
+  public boolean get(VectorState s) {
+    return s.a.get(nextIdx());
+  }
+
+  @Benchmark
+  public void set(VectorState s) {
+    s.a.set(nextIdx(), true);
+  }
+
+  @Benchmark
+  public void flip(VectorState s) {
+    s.a.flip(nextIdx());
+  }
+}
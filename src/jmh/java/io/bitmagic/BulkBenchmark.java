@@ -0,0 +1,69 @@
+package io.bitmagic;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk set/test methods against the per-bit loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkBenchmark {
+
+  @Param({"1000", "100000"})
+  public int positions;
+
+  private long[] _idx;
+  private boolean[] _flags;
+  private BitVector _bv;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random rand = new Random(10L);
+    _idx = new long[positions];
+    for (int i = 0; i < positions; i++)
+      _idx[i] = rand.nextInt(Integer.MAX_VALUE);
+    _flags = new boolean[positions];
+    _bv = new BitVector();
+    _bv.setBits(_idx);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    _bv.close();
+  }
+
+  @Benchmark
+  public BitVector setLoop() {
+    _bv.clear(false);
+    for (long i : _idx)
+      _bv.set(i, true);
+    return _bv;
+  }
+
+  @Benchmark
+  public BitVector setBulk() {
+    _bv.clear(false);
+    _bv.setBits(_idx);
+    return _bv;
+  }
+
+  @Benchmark
+  public boolean[] testLoop() {
+    for (int i = 0; i < _idx.length; i++)
+      _flags[i] = _bv.get(_idx[i]);
+    return _flags;
+  }
+
+  @Benchmark
+  public boolean[] testBulk() {
+    _bv.testBits(_idx, _flags);
+    return _flags;
+  }
+}
@@ -0,0 +1,64 @@
+package io.bitmagic;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mixed single-bit operations on several vectors, one call each against a flushed <code>CommandBatch</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBatchBenchmark {
+  private static final int OPS = 10000;
+
+  @Param({"1", "16"})
+  public int run;
+
+  private BitVector[] _bvs;
+  private int[] _target;
+  private long[] _idx;
+  private CommandBatch _batch;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random rand = new Random(10L);
+    _bvs = new BitVector[8];
+    for (int i = 0; i < _bvs.length; i++)
+      _bvs[i] = new BitVector();
+    _target = new int[OPS];
+    _idx = new long[OPS];
+    // runs of consecutive updates to the same vector
+    for (int i = 0; i < OPS; i++) {
+      _target[i] = i % run == 0 ? rand.nextInt(_bvs.length) : _target[i - 1];
+      _idx[i] = rand.nextInt(1 << 24);
+    }
+    _batch = new CommandBatch(OPS);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    for (BitVector bv : _bvs)
+      bv.close();
+  }
+
+  @Benchmark
+  public BitVector[] direct() {
+    for (int i = 0; i < OPS; i++)
+      _bvs[_target[i]].flip(_idx[i]);
+    return _bvs;
+  }
+
+  @Benchmark
+  public BitVector[] batched() {
+    for (int i = 0; i < OPS; i++)
+      _batch.flip(_bvs[_target[i]], _idx[i]);
+    _batch.flush();
+    return _bvs;
+  }
+}
@@ -0,0 +1,39 @@
+package io.bitmagic;
+
+import io.bitmagic.core.BVIterator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iteration over non-zero bits.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IterationBenchmark {
+  private final long[] _buf = new long[1024];
+
+  @Benchmark
+  public void boxedIterator(VectorState s, Blackhole bh) {
+    for (Long idx : s.a)
+      bh.consume(idx);
+  }
+
+  @Benchmark
+  public void decode(VectorState s, Blackhole bh) {
+    try (BVIterator it = s.a.iterator()) {
+      for (int n = it.decode(_buf); n > 0; n = it.decode(_buf))
+        bh.consume(_buf[n - 1]);
+    }
+  }
+
+  @Benchmark
+  public void forEachBit(VectorState s, Blackhole bh) {
+    s.a.forEachBit(bh::consume);
+  }
+}
@@ -0,0 +1,64 @@
+package io.bitmagic;
+
+import io.bitmagic.core.OptMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logical operations and memory optimization. The in-place operations run on a fresh copy,
+ * <code>copy</code> gives the baseline to subtract.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogicalBenchmark {
+
+  @Benchmark
+  public long copy(VectorState s) {
+    try (BitVector bv = s.a.copy()) {
+      return bv.getSize();
+    }
+  }
+
+  @Benchmark
+  public long and(VectorState s) {
+    try (BitVector bv = s.a.copy()) {
+      bv.and(s.b);
+      return bv.getSize();
+    }
+  }
+
+  @Benchmark
+  public long or(VectorState s) {
+    try (BitVector bv = s.a.copy()) {
+      bv.or(s.b);
+      return bv.getSize();
+    }
+  }
+
+  @Benchmark
+  public long xor(VectorState s) {
+    try (BitVector bv = s.a.copy()) {
+      bv.xor(s.b);
+      return bv.getSize();
+    }
+  }
+
+  @Benchmark
+  public long sub(VectorState s) {
+    try (BitVector bv = s.a.copy()) {
+      bv.sub(s.b);
+      return bv.getSize();
+    }
+  }
+
+  @Benchmark
+  public long optimize(VectorState s) {
+    try (BitVector bv = s.a.copy()) {
+      return bv.optimize(OptMode.GAP_COMPRESS).getMemoryUsed();
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package io.bitmagic;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Range operations and counting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeBenchmark {
+
+  @Benchmark
+  public long count(VectorState s) {
+    return s.a.count();
+  }
+
+  @Benchmark
+  public long countInRange(VectorState s) {
+    return s.a.countInRange(12345, VectorState.SPAN / 2 + 777);
+  }
+
+  @Benchmark
+  public long findFirst(VectorState s) {
+    return s.a.findFirst(VectorState.SPAN / 3);
+  }
+
+  @Benchmark
+  public BitVector setRange(VectorState s) {
+    BitVector bv = s.a;
+    bv.setRange(VectorState.SPAN / 4, VectorState.SPAN / 4 + 100000, true);
+    bv.setRange(VectorState.SPAN / 4, VectorState.SPAN / 4 + 100000, false);
+    return bv;
+  }
+}
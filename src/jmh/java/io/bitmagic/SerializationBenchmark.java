@@ -0,0 +1,42 @@
+package io.bitmagic;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization and deserialization.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+  private ByteBuffer _direct;
+
+  @Setup(Level.Trial)
+  public void setUp(VectorState s) {
+    _direct = ByteBuffer.allocateDirect((int)s.a.calcStat().getMaxSerializeMem());
+  }
+
+  @Benchmark
+  public byte[] toArray(VectorState s) {
+    return s.a.toArray();
+  }
+
+  @Benchmark
+  public int serializeDirect(VectorState s) {
+    _direct.clear();
+    return s.a.serialize(_direct);
+  }
+
+  @Benchmark
+  public long deserialize(VectorState s) {
+    try (BitVector bv = new BitVector(s.serialized)) {
+      return bv.getSize();
+    }
+  }
+}
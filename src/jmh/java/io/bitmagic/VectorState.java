@@ -0,0 +1,57 @@
+package io.bitmagic;
+
+import io.bitmagic.core.Strategy;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+
+/**
+ * Pair of random bit vectors shared by the benchmarks.
+ * <p>
+ * <code>simd</code> selects the native library variant. It must be applied before the first use of
+ * <code>BitVector</code>, which holds since JMH runs each parameter combination in its own fork.
+ */
+@State(Scope.Benchmark)
+public class VectorState {
+  // Bits spanned by the generated vectors
+  public static final int SPAN = 1 << 24;
+
+  @Param({"0.001", "0.1", "0.5"})
+  public double density;
+
+  @Param({"BM_BIT", "BM_GAP"})
+  public String strategy;
+
+  @Param({"auto"})
+  public String simd;
+
+  public BitVector a;
+  public BitVector b;
+  public byte[] serialized;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    if (!"auto".equals(simd))
+      System.setProperty("bitmagic.native.simd", simd);
+    Strategy stg = Strategy.valueOf(strategy);
+    a = generate(stg, 1L);
+    b = generate(stg, 2L);
+    serialized = a.toArray();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    a.close();
+    b.close();
+  }
+
+  private BitVector generate(Strategy stg, long seed) {
+    Random rand = new Random(seed);
+    BitVector bv = new BitVector(stg);
+    long[] bits = new long[(int)(SPAN * density)];
+    for (int i = 0; i < bits.length; i++)
+      bits[i] = rand.nextInt(SPAN);
+    bv.setBits(bits);
+    return bv;
+  }
+}
@@ -0,0 +1,274 @@
+package io.bitmagic;
+
+import io.bitmagic.core.OpCode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static io.bitmagic.core.AbstractBVector.MAX_BITS;
+
+/**
+ * Combines many bit vectors with a logical operation in one pass, writing the result into a target vector.
+ * No intermediate vectors are created for plain folds.
+ * <p>
+ * AND and SUB stop as soon as the result becomes empty. AND also restricts the work to the range where
+ * all operands have non-zero bits.
+ */
+public final class Aggregator {
+  // Operand count below which the parallel methods fold sequentially; also the size of a leaf group
+  public static final int PARALLEL_MIN_OPERANDS = 8;
+
+  private static final class Reduce extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final OpCode _code;
+    private final List<BitVector> _ops;
+    private final BitVector _target;
+
+    Reduce(OpCode code, List<BitVector> ops, BitVector target) {
+      _code = code;
+      _ops = ops;
+      _target = target;
+    }
+
+    @Override
+    protected void compute() {
+      if (_ops.size() <= PARALLEL_MIN_OPERANDS) {
+        fold(_code, _ops, _target);
+        return;
+      }
+      int mid = _ops.size() / 2;
+      try (BitVector hi = new BitVector()) {
+        invokeAll(new Reduce(_code, _ops.subList(0, mid), _target), new Reduce(_code, _ops.subList(mid, _ops.size()), hi));
+        _target.op(hi, _code);
+      }
+    }
+  }
+
+  private final List<BitVector> _operands = new ArrayList<>();
+
+  /**
+   * Adds operands.
+   * @param bvs bit vectors.
+   * @return this aggregator.
+   */
+  public Aggregator add(BitVector... bvs) {
+    Collections.addAll(_operands, bvs);
+    return this;
+  }
+
+  /**
+   * Adds operands.
+   * @param bvs bit vectors.
+   * @return this aggregator.
+   */
+  public Aggregator add(Iterable<BitVector> bvs) {
+    for (BitVector bv : bvs)
+      _operands.add(bv);
+    return this;
+  }
+
+  /**
+   * Number of operands.
+   * @return operand count.
+   */
+  public int size() { return _operands.size(); }
+
+  /**
+   * Removes all operands.
+   */
+  public void reset() { _operands.clear(); }
+
+  /**
+   * Folds all operands with the operation: <code>target = op[0] code op[1] code ... op[n-1]</code>.
+   * The target may be one of the operands, for SUB only the first one.
+   * An empty aggregator produces an empty target.
+   *
+   * @param code logical operation.
+   * @param target result vector, its previous content is replaced.
+   */
+  public void combine(OpCode code, BitVector target) {
+    if (_operands.isEmpty()) {
+      target.clear();
+      return;
+    }
+    switch (code) {
+      case AND:
+        and(target);
+        break;
+      case OR:
+      case XOR:
+        fold(code, ordered(target, true), target);
+        break;
+      case SUB:
+        sub(target);
+        break;
+    }
+  }
+
+  /**
+   * Same as {@link #combine(OpCode, BitVector)}, but splits the operands into groups folded concurrently
+   * and merges the partial results as a tree. SUB is computed as <code>op[0] - (op[1] | ... | op[n-1])</code>.
+   * Falls back to the sequential path for fewer than <code>PARALLEL_MIN_OPERANDS</code> operands or when the
+   * target is one of the operands.
+   * The operands must not be modified during the call.
+   *
+   * @param code logical operation.
+   * @param target result vector, its previous content is replaced.
+   * @param pool fork-join pool to run in.
+   */
+  public void combine(OpCode code, BitVector target, ForkJoinPool pool) {
+    if (_operands.size() < PARALLEL_MIN_OPERANDS || indexOf(target) >= 0 || pool.getParallelism() < 2) {
+      combine(code, target);
+      return;
+    }
+    if (code == OpCode.SUB) {
+      BitVector first = _operands.get(0);
+      if (first.isEmpty()) {
+        target.clear();
+        return;
+      }
+      pool.invoke(new Reduce(OpCode.OR, _operands.subList(1, _operands.size()), target));
+      target.xor(first);
+      target.and(first); // first & ~rest
+      return;
+    }
+    pool.invoke(new Reduce(code, _operands, target));
+  }
+
+  /**
+   * Computes <code>target = op[0] | op[1] | ... | op[n-1]</code>.
+   * @param target result vector.
+   */
+  public void combineOr(BitVector target) { combine(OpCode.OR, target); }
+
+  /**
+   * Computes <code>target = op[0] &amp; op[1] &amp; ... &amp; op[n-1]</code>.
+   * @param target result vector.
+   */
+  public void combineAnd(BitVector target) { combine(OpCode.AND, target); }
+
+  /**
+   * Computes the AND of the ORs of each group: <code>target = (g0[0] | g0[1] ...) &amp; (g1[0] | ...) ...</code>.
+   * Stops as soon as the result becomes empty. The target must not be an operand.
+   *
+   * @param target result vector.
+   * @param orGroups aggregators whose operands are ORed.
+   */
+  public static void andOfOrs(BitVector target, Aggregator... orGroups) {
+    target.clear();
+    if (orGroups.length == 0)
+      return;
+    orGroups[0].combineOr(target);
+    if (orGroups.length == 1)
+      return;
+    try (BitVector group = new BitVector()) {
+      for (int i = 1; i < orGroups.length && target.nonEmpty(); i++) {
+        group.clear(false);
+        orGroups[i].combineOr(group);
+        target.and(group);
+      }
+    }
+  }
+
+  // Operand list with the target moved to the front, so it is not overwritten before it is read
+  private List<BitVector> ordered(BitVector target, boolean commutative) {
+    int pos = indexOf(target);
+    if (pos <= 0)
+      return _operands;
+    if (!commutative)
+      throw new IllegalArgumentException("Target can only be the first operand");
+    List<BitVector> ops = new ArrayList<>(_operands);
+    Collections.swap(ops, 0, pos);
+    return ops;
+  }
+
+  private int indexOf(BitVector bv) {
+    for (int i = 0; i < _operands.size(); i++) {
+      if (_operands.get(i) == bv)
+        return i;
+    }
+    return -1;
+  }
+
+  private static void init(BitVector first, BitVector target) {
+    if (first != target) {
+      target.clear(false);
+      target.or(first);
+    }
+  }
+
+  private static void fold(OpCode code, List<BitVector> ops, BitVector target) {
+    // XOR needs the original target value if the target is listed more than once
+    BitVector orig = code == OpCode.XOR && ops.lastIndexOf(target) > 0 ? target.copy() : null;
+    try {
+      init(ops.get(0), target);
+      for (int i = 1; i < ops.size(); i++) {
+        BitVector bv = ops.get(i);
+        if (bv != target)
+          target.op(bv, code);
+        else if (orig != null)
+          target.xor(orig);
+      }
+    }
+    finally {
+      if (orig != null)
+        orig.close();
+    }
+  }
+
+  private void and(BitVector target) {
+    // Narrow down the range covered by all operands, any empty operand empties the result
+    long left = 0, right = MAX_BITS - 1;
+    BitVector narrowest = null;
+    long span = Long.MAX_VALUE;
+    for (BitVector bv : _operands) {
+      long first = bv.findFirst();
+      if (first < 0) {
+        target.clear();
+        return;
+      }
+      long last = bv.findReverse();
+      left = Math.max(left, first);
+      right = Math.min(right, last);
+      if (last - first < span) {
+        span = last - first;
+        narrowest = bv;
+      }
+    }
+    if (left > right) {
+      target.clear();
+      return;
+    }
+
+    // Start from the target if it is an operand, otherwise from the operand with the smallest range
+    BitVector start = indexOf(target) >= 0 ? target : narrowest;
+    init(start, target);
+    if (left > 0)
+      target.setRange(0, left - 1, false);
+    if (right < MAX_BITS - 1)
+      target.setRange(right + 1, MAX_BITS - 1, false);
+    for (BitVector bv : _operands) {
+      if (bv == start || bv == target)
+        continue;
+      if (!target.nonEmpty())
+        return;
+      target.and(bv);
+    }
+  }
+
+  private void sub(BitVector target) {
+    List<BitVector> ops = ordered(target, false);
+    init(ops.get(0), target);
+    for (int i = 1; i < ops.size() && target.nonEmpty(); i++) {
+      BitVector bv = ops.get(i);
+      if (bv != target)
+        target.sub(bv);
+      else
+        target.clear(false); // x - x
+    }
+  }
+}
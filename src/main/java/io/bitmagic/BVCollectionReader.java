@@ -0,0 +1,141 @@
+package io.bitmagic;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static io.bitmagic.BVCollectionWriter.*;
+
+/**
+ * Random access to a collection file written by {@link BVCollectionWriter}.
+ * <p>
+ * The file is memory-mapped, only the header and the index are read on open. A vector is deserialized only when
+ * requested, and its bit count and size are available without decoding.
+ * Thread-safe.
+ */
+public final class BVCollectionReader implements AutoCloseable {
+  private final FileChannel _ch;
+  private final int _count;
+  private final ByteBuffer _index;
+  // Whole file mapping, null for files too large to map at once
+  private final MappedByteBuffer _data;
+
+  /**
+   * Opens a collection file.
+   *
+   * @param path file path.
+   * @throws IOException in case of an I/O error or malformed file.
+   */
+  public BVCollectionReader(Path path) throws IOException {
+    _ch = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      long fileSize = _ch.size();
+      if (fileSize < HEADER_SIZE)
+        throw new StreamCorruptedException("Not a bit vector collection: " + path);
+      ByteBuffer header = _ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+      if (header.getInt() != MAGIC)
+        throw new StreamCorruptedException("Not a bit vector collection: " + path);
+      int version = header.getInt();
+      if (version != VERSION)
+        throw new StreamCorruptedException("Unsupported collection version " + version);
+      _count = header.getInt();
+      header.getInt();
+      long indexOffset = header.getLong();
+      if (_count < 0 || indexOffset < HEADER_SIZE || indexOffset + (long)_count * ENTRY_SIZE != fileSize)
+        throw new StreamCorruptedException("Truncated or unfinished collection: " + path);
+
+      _data = fileSize <= Integer.MAX_VALUE ? _ch.map(FileChannel.MapMode.READ_ONLY, 0, fileSize) : null;
+      _index = _data != null ? slice(_data, indexOffset, _count * ENTRY_SIZE)
+          : _ch.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long)_count * ENTRY_SIZE);
+    }
+    catch (IOException | RuntimeException e) {
+      _ch.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Number of vectors in the collection.
+   * @return vector count.
+   */
+  public int size() { return _count; }
+
+  /**
+   * Number of non-zero bits of a vector, read from the index.
+   * @param i vector ordinal.
+   * @return number of non-zero bits.
+   */
+  public long getCount(int i) { return _index.getLong(entry(i) + 12); }
+
+  /**
+   * Size of a vector, read from the index.
+   * @param i vector ordinal.
+   * @return bit vector size.
+   */
+  public long getSize(int i) { return _index.getLong(entry(i) + 20); }
+
+  /**
+   * Serialized length of a vector.
+   * @param i vector ordinal.
+   * @return length in bytes.
+   */
+  public int getLength(int i) { return _index.getInt(entry(i) + 8); }
+
+  /**
+   * Serialized form of a vector, without copying.
+   * @param i vector ordinal.
+   * @return read-only buffer positioned at the serialized vector.
+   * @throws IOException in case of an I/O error.
+   */
+  public ByteBuffer getSerialized(int i) throws IOException {
+    long offset = _index.getLong(entry(i));
+    int len = getLength(i);
+    if (_data != null)
+      return slice(_data, offset, len);
+    return _ch.map(FileChannel.MapMode.READ_ONLY, offset, len);
+  }
+
+  /**
+   * Deserializes a vector.
+   * @param i vector ordinal.
+   * @return new <code>BitVector</code> object.
+   * @throws IOException in case of an I/O error.
+   */
+  public BitVector get(int i) throws IOException {
+    BitVector bv = new BitVector();
+    bv.deserialize(getSerialized(i));
+    return bv;
+  }
+
+  /**
+   * Deserializes a vector and merges (ORs) it into <code>target</code>.
+   * @param i vector ordinal.
+   * @param target bit vector to merge into.
+   * @throws IOException in case of an I/O error.
+   */
+  public void read(int i, BitVector target) throws IOException {
+    target.deserialize(getSerialized(i));
+  }
+
+  @Override
+  public void close() throws IOException {
+    _ch.close();
+  }
+
+  private int entry(int i) {
+    if (i < 0 || i >= _count)
+      throw new IndexOutOfBoundsException("Vector " + i + " of " + _count);
+    return i * ENTRY_SIZE;
+  }
+
+  private static ByteBuffer slice(ByteBuffer buf, long offset, int len) {
+    ByteBuffer dup = buf.duplicate();
+    dup.position((int)offset);
+    dup.limit((int)offset + len);
+    return dup.slice();
+  }
+}
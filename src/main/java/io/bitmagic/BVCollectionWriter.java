@@ -0,0 +1,102 @@
+package io.bitmagic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a collection of serialized bit vectors into a single file readable by {@link BVCollectionReader}.
+ * <p>
+ * File layout, big-endian:
+ * <pre>
+ * header:  int magic, int version, int vector count, int reserved, long index offset
+ * payload: serialized vectors, one after another
+ * index:   per vector - long payload offset, int payload length, long bit count, long vector size
+ * </pre>
+ * The index is written on {@link #close()}, a file that was not closed properly is rejected by the reader.
+ */
+public final class BVCollectionWriter implements AutoCloseable {
+  static final int MAGIC = 0x424D5643; // "BMVC"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 24;
+  static final int ENTRY_SIZE = 28;
+
+  private final FileChannel _ch;
+  private ByteBuffer _index = ByteBuffer.allocate(ENTRY_SIZE * 64);
+  private ByteBuffer _buf = ByteBuffer.allocate(0);
+  private int _count = 0;
+  private long _offset = HEADER_SIZE;
+
+  /**
+   * Creates or replaces a collection file.
+   *
+   * @param path file path.
+   * @throws IOException in case of an I/O error.
+   */
+  public BVCollectionWriter(Path path) throws IOException {
+    _ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE);
+    _ch.position(HEADER_SIZE);
+  }
+
+  /**
+   * Appends a bit vector.
+   *
+   * @param bv bit vector.
+   * @return ordinal of the vector in the collection.
+   * @throws IOException in case of an I/O error.
+   */
+  public int add(BitVector bv) throws IOException {
+    int max = (int)bv.calcStat().getMaxSerializeMem();
+    if (_buf.capacity() < max)
+      _buf = ByteBuffer.allocate(max);
+    _buf.clear();
+    int len = bv.serialize(_buf);
+    _buf.flip();
+    writeFully(_buf);
+
+    if (_index.remaining() < ENTRY_SIZE) {
+      ByteBuffer index = ByteBuffer.allocate(_index.capacity() * 2);
+      _index.flip();
+      index.put(_index);
+      _index = index;
+    }
+    _index.putLong(_offset).putInt(len).putLong(bv.count()).putLong(bv.getSize());
+    _offset += len;
+    return _count++;
+  }
+
+  /**
+   * Number of vectors added so far.
+   * @return vector count.
+   */
+  public int size() { return _count; }
+
+  /**
+   * Writes the index and the header and closes the file.
+   *
+   * @throws IOException in case of an I/O error.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      _index.flip();
+      writeFully(_index);
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putInt(_count).putInt(0).putLong(_offset).flip();
+      _ch.position(0);
+      writeFully(header);
+      _ch.force(true);
+    }
+    finally {
+      _ch.close();
+    }
+  }
+
+  private void writeFully(ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining())
+      _ch.write(buf);
+  }
+}
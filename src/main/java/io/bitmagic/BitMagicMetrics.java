@@ -0,0 +1,140 @@
+package io.bitmagic;
+
+import io.bitmagic.core.NativeResources;
+import io.bitmagic.core.OpCode;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Process-wide metrics of native bit vector operations, exposed over JMX as <code>io.bitmagic:type=Metrics</code>.
+ * <p>
+ * Live vector and iterator counts come from {@link NativeResources}. Operation counts, latency histograms and
+ * serialization throughput are collected only when the JVM is started with <code>-Dbitmagic.metrics=true</code>,
+ * which also registers the MBean when the first bit vector class is loaded. The flag is a constant, so with
+ * collection disabled the JIT removes the instrumentation from the hot path.
+ * <p>
+ * Native memory and block totals are not reported. The native layer has no allocation hooks to keep a running
+ * total, and summing <code>calcStat()</code> over the live vectors would walk vectors that their owners may be
+ * modifying at the same time. Memory is only known per vector, from its own <code>calcStat()</code>.
+ */
+public final class BitMagicMetrics implements BitMagicMetricsMXBean {
+  public static final boolean ENABLED = Boolean.getBoolean("bitmagic.metrics");
+  public static final String OBJECT_NAME = "io.bitmagic:type=Metrics";
+
+  private static final BitMagicMetrics INSTANCE = new BitMagicMetrics();
+
+  private final LatencyHistogram[] _ops = new LatencyHistogram[OpCode.values().length];
+  private final LatencyHistogram _serialize = new LatencyHistogram();
+  private final LongAdder _serializedBytes = new LongAdder();
+  private final LatencyHistogram _deserialize = new LatencyHistogram();
+  private final LongAdder _deserializedBytes = new LongAdder();
+  private final LatencyHistogram _optimize = new LatencyHistogram();
+
+  private BitMagicMetrics() {
+    for (int i = 0; i < _ops.length; i++)
+      _ops[i] = new LatencyHistogram();
+  }
+
+  public static BitMagicMetrics getInstance() { return INSTANCE; }
+
+  /**
+   * Registers the MBean if collection is enabled, called by the bit vector class initialization.
+   */
+  static synchronized void register() {
+    if (!ENABLED)
+      return;
+    try {
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+        ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+    }
+    catch (JMException e) {
+      throw new RuntimeException("Metrics registration problem.", e);
+    }
+  }
+
+  /**
+   * Start time for a measured call, 0 when collection is disabled.
+   */
+  static long start() {
+    return ENABLED ? System.nanoTime() : 0;
+  }
+
+  static void op(OpCode code, long start) {
+    if (ENABLED)
+      INSTANCE._ops[code.ordinal()].record(System.nanoTime() - start);
+  }
+
+  static void serialized(long bytes, long start) {
+    if (ENABLED) {
+      INSTANCE._serialize.record(System.nanoTime() - start);
+      INSTANCE._serializedBytes.add(bytes);
+    }
+  }
+
+  static void deserialized(long bytes, long start) {
+    if (ENABLED) {
+      INSTANCE._deserialize.record(System.nanoTime() - start);
+      INSTANCE._deserializedBytes.add(bytes);
+    }
+  }
+
+  static void optimized(long start) {
+    if (ENABLED)
+      INSTANCE._optimize.record(System.nanoTime() - start);
+  }
+
+  @Override public long getLiveVectors() { return NativeResources.getLiveVectors(); }
+  @Override public long getLiveIterators() { return NativeResources.getLiveIterators(); }
+
+  @Override public Map<String, Long> getOpCount() { return perOp(LatencyHistogram::count); }
+  @Override public Map<String, Double> getOpMeanMicros() { return perOpDouble(h -> h.meanNanos() / 1000); }
+  @Override public Map<String, Long> getOpP99Nanos() { return perOp(h -> h.percentileNanos(99)); }
+
+  @Override public long getSerializeCount() { return _serialize.count(); }
+  @Override public long getSerializedBytes() { return _serializedBytes.sum(); }
+  @Override public double getSerializeMBPerSec() { return throughput(_serializedBytes, _serialize); }
+  @Override public long getDeserializeCount() { return _deserialize.count(); }
+  @Override public long getDeserializedBytes() { return _deserializedBytes.sum(); }
+  @Override public double getDeserializeMBPerSec() { return throughput(_deserializedBytes, _deserialize); }
+
+  @Override public long getOptimizeCount() { return _optimize.count(); }
+  @Override public double getOptimizeMeanMicros() { return _optimize.meanNanos() / 1000; }
+
+  @Override
+  public void reset() {
+    for (LatencyHistogram h : _ops)
+      h.reset();
+    _serialize.reset();
+    _serializedBytes.reset();
+    _deserialize.reset();
+    _deserializedBytes.reset();
+    _optimize.reset();
+  }
+
+  private Map<String, Long> perOp(ToLongFunction<LatencyHistogram> f) {
+    Map<String, Long> m = new LinkedHashMap<>();
+    for (OpCode code : OpCode.values())
+      m.put(code.name(), f.applyAsLong(_ops[code.ordinal()]));
+    return m;
+  }
+
+  private Map<String, Double> perOpDouble(ToDoubleFunction<LatencyHistogram> f) {
+    Map<String, Double> m = new LinkedHashMap<>();
+    for (OpCode code : OpCode.values())
+      m.put(code.name(), f.applyAsDouble(_ops[code.ordinal()]));
+    return m;
+  }
+
+  private static double throughput(LongAdder bytes, LatencyHistogram h) {
+    long nanos = h.totalNanos();
+    return nanos == 0 ? 0 : bytes.sum() * 1e3 / nanos; // bytes/ns * 1e9 / 1e6
+  }
+}
@@ -0,0 +1,27 @@
+package io.bitmagic;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link BitMagicMetrics}, registered as <code>io.bitmagic:type=Metrics</code>.
+ */
+public interface BitMagicMetricsMXBean {
+  long getLiveVectors();
+  long getLiveIterators();
+
+  Map<String, Long> getOpCount();
+  Map<String, Double> getOpMeanMicros();
+  Map<String, Long> getOpP99Nanos();
+
+  long getSerializeCount();
+  long getSerializedBytes();
+  double getSerializeMBPerSec();
+  long getDeserializeCount();
+  long getDeserializedBytes();
+  double getDeserializeMBPerSec();
+
+  long getOptimizeCount();
+  double getOptimizeMeanMicros();
+
+  void reset();
+}
@@ -0,0 +1,341 @@
+package io.bitmagic;
+
+import io.bitmagic.core.OpCode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.bitmagic.core.AbstractBVector.MAX_BITS;
+
+/**
+ * Lazy logical expression over bit vectors, e.g. <code>(A OR B OR C) AND NOT D AND (E XOR F)</code>:
+ * <pre>
+ * BitQuery q = BitQuery.anyOf(a, b, c).sub(d).and(BitQuery.of(e).xor(f));
+ * long hits = q.count();
+ * </pre>
+ * Building a query does not touch the vectors. Nested operations of the same kind are flattened into one n-ary node,
+ * leaf operands are applied directly to the accumulated result, and only nested sub-expressions use scratch vectors,
+ * at most one per nesting level, reused across siblings.
+ * <p>
+ * Before evaluating an AND, the range of possible non-zero bits of every operand is checked, an empty intersection
+ * yields an empty result without touching any operand data. AND and SUB stop as soon as the accumulated result
+ * becomes empty. {@link #nonEmpty()} answers OR expressions without combining anything.
+ * <p>
+ * Queries are immutable. The vectors must not be modified during evaluation.
+ */
+public final class BitQuery {
+  private final OpCode _op; // null for a leaf
+  private final BitVector _bv;
+  private final List<BitQuery> _args;
+
+  private BitQuery(BitVector bv) {
+    _op = null;
+    _bv = bv;
+    _args = Collections.emptyList();
+  }
+
+  private BitQuery(OpCode op, List<BitQuery> args) {
+    _op = op;
+    _bv = null;
+    _args = args;
+  }
+
+  /**
+   * Leaf query.
+   * @param bv bit vector.
+   * @return query returning <code>bv</code>.
+   */
+  public static BitQuery of(BitVector bv) {
+    return new BitQuery(bv);
+  }
+
+  /**
+   * OR of all arguments.
+   * @param bvs bit vectors.
+   * @return query.
+   */
+  public static BitQuery anyOf(BitVector... bvs) {
+    return combine(OpCode.OR, leaves(bvs));
+  }
+
+  /**
+   * OR of all arguments.
+   * @param qs queries.
+   * @return query.
+   */
+  public static BitQuery anyOf(BitQuery... qs) {
+    return combine(OpCode.OR, Arrays.asList(qs));
+  }
+
+  /**
+   * AND of all arguments.
+   * @param bvs bit vectors.
+   * @return query.
+   */
+  public static BitQuery allOf(BitVector... bvs) {
+    return combine(OpCode.AND, leaves(bvs));
+  }
+
+  /**
+   * AND of all arguments.
+   * @param qs queries.
+   * @return query.
+   */
+  public static BitQuery allOf(BitQuery... qs) {
+    return combine(OpCode.AND, Arrays.asList(qs));
+  }
+
+  public BitQuery and(BitQuery q) { return combine(OpCode.AND, Arrays.asList(this, q)); }
+  public BitQuery or(BitQuery q) { return combine(OpCode.OR, Arrays.asList(this, q)); }
+  public BitQuery xor(BitQuery q) { return combine(OpCode.XOR, Arrays.asList(this, q)); }
+  /** AND NOT */
+  public BitQuery sub(BitQuery q) { return combine(OpCode.SUB, Arrays.asList(this, q)); }
+
+  public BitQuery and(BitVector bv) { return and(of(bv)); }
+  public BitQuery or(BitVector bv) { return or(of(bv)); }
+  public BitQuery xor(BitVector bv) { return xor(of(bv)); }
+  /** AND NOT */
+  public BitQuery sub(BitVector bv) { return sub(of(bv)); }
+
+  /**
+   * Evaluates the query into a new bit vector.
+   * @return new <code>BitVector</code> object.
+   */
+  public BitVector evaluate() {
+    BitVector target = new BitVector();
+    evaluateInto(target);
+    return target;
+  }
+
+  /**
+   * Evaluates the query into <code>target</code>, replacing its content.
+   * The target must not be used in the query.
+   *
+   * @param target result vector.
+   */
+  public void evaluateInto(BitVector target) {
+    try (Scratch s = new Scratch(null)) {
+      eval(target, s);
+    }
+  }
+
+  /**
+   * Evaluates the query into <code>target</code>, taking scratch vectors from the pool.
+   *
+   * @param target result vector.
+   * @param pool pool of scratch vectors.
+   */
+  public void evaluateInto(BitVector target, BitVectorPool pool) {
+    try (Scratch s = new Scratch(pool)) {
+      eval(target, s);
+    }
+  }
+
+  /**
+   * Number of non-zero bits in the result. A leaf is counted directly, other queries are evaluated into
+   * a scratch vector that is not handed out.
+   *
+   * @return number of non-zero bits.
+   */
+  public long count() {
+    return count(null);
+  }
+
+  /**
+   * Number of non-zero bits in the result, taking scratch vectors from the pool.
+   *
+   * @param pool pool of scratch vectors.
+   * @return number of non-zero bits.
+   */
+  public long count(BitVectorPool pool) {
+    if (_op == null)
+      return _bv.count();
+    if (isEmptyRange())
+      return 0;
+    try (Scratch s = new Scratch(pool)) {
+      BitVector r = s.acquire();
+      eval(r, s);
+      return r.count();
+    }
+  }
+
+  /**
+   * Checks if the result has at least one non-zero bit. Leaves and OR expressions are answered
+   * without combining vectors.
+   *
+   * @return true if the result is not empty.
+   */
+  public boolean nonEmpty() {
+    if (_op == null)
+      return _bv.nonEmpty();
+    if (_op == OpCode.OR) {
+      for (BitQuery q : _args) {
+        if (q.nonEmpty())
+          return true;
+      }
+      return false;
+    }
+    if (isEmptyRange() || (_op == OpCode.SUB && !_args.get(0).nonEmpty()))
+      return false;
+    try (Scratch s = new Scratch(null)) {
+      BitVector r = s.acquire();
+      eval(r, s);
+      return r.nonEmpty();
+    }
+  }
+
+  /**
+   * Checks if the result is empty.
+   * @return true if the result is empty.
+   */
+  public boolean isEmpty() {
+    return !nonEmpty();
+  }
+
+  private static List<BitQuery> leaves(BitVector[] bvs) {
+    List<BitQuery> qs = new ArrayList<>(bvs.length);
+    for (BitVector bv : bvs)
+      qs.add(of(bv));
+    return qs;
+  }
+
+  private static BitQuery combine(OpCode op, List<BitQuery> qs) {
+    if (qs.isEmpty())
+      throw new IllegalArgumentException("No operands");
+    List<BitQuery> args = new ArrayList<>(qs.size());
+    for (int i = 0; i < qs.size(); i++) {
+      BitQuery q = qs.get(i);
+      // (a op b) op c == a op b op c; for SUB only on the left side
+      if (q._op == op && (op != OpCode.SUB || i == 0))
+        args.addAll(q._args);
+      else
+        args.add(q);
+    }
+    return new BitQuery(op, Collections.unmodifiableList(args));
+  }
+
+  /**
+   * Range that may contain non-zero bits of the result, as <code>{first, last}</code>, or null if the result is
+   * known to be empty.
+   */
+  private long[] range() {
+    if (_op == null) {
+      long first = _bv.findFirst();
+      return first < 0 ? null : new long[] { first, _bv.findReverse() };
+    }
+    switch (_op) {
+      case AND: {
+        long[] r = { 0, MAX_BITS - 1 };
+        for (BitQuery q : _args) {
+          long[] qr = q.range();
+          if (qr == null)
+            return null;
+          r[0] = Math.max(r[0], qr[0]);
+          r[1] = Math.min(r[1], qr[1]);
+          if (r[0] > r[1])
+            return null;
+        }
+        return r;
+      }
+      case SUB:
+        return _args.get(0).range();
+      default: {
+        long[] r = null;
+        for (BitQuery q : _args) {
+          long[] qr = q.range();
+          if (qr == null)
+            continue;
+          if (r == null)
+            r = qr;
+          else {
+            r[0] = Math.min(r[0], qr[0]);
+            r[1] = Math.max(r[1], qr[1]);
+          }
+        }
+        return r;
+      }
+    }
+  }
+
+  private boolean isEmptyRange() {
+    return _op == OpCode.AND && range() == null;
+  }
+
+  private void eval(BitVector target, Scratch s) {
+    if (_op == null) {
+      target.clear(false);
+      target.or(_bv);
+      return;
+    }
+    long[] bounds = null;
+    if (_op == OpCode.AND) {
+      bounds = range();
+      if (bounds == null) {
+        target.clear(false);
+        return;
+      }
+    }
+
+    _args.get(0).eval(target, s);
+    if (bounds != null) {
+      if (bounds[0] > 0)
+        target.setRange(0, bounds[0] - 1, false);
+      if (bounds[1] < MAX_BITS - 1)
+        target.setRange(bounds[1] + 1, MAX_BITS - 1, false);
+    }
+    for (int i = 1; i < _args.size(); i++) {
+      if ((_op == OpCode.AND || _op == OpCode.SUB) && target.isEmpty())
+        return;
+      BitQuery q = _args.get(i);
+      if (q._op == null)
+        target.op(q._bv, _op);
+      else {
+        BitVector tmp = s.acquire();
+        try {
+          q.eval(tmp, s);
+          target.op(tmp, _op);
+        }
+        finally {
+          s.release(tmp);
+        }
+      }
+    }
+  }
+
+  // Scratch vectors of one evaluation
+  private static final class Scratch implements AutoCloseable {
+    private final BitVectorPool _pool;
+    private final ArrayDeque<BitVector> _free = new ArrayDeque<>();
+    private final List<BitVector> _all = new ArrayList<>();
+
+    Scratch(BitVectorPool pool) {
+      _pool = pool;
+    }
+
+    BitVector acquire() {
+      BitVector bv = _free.poll();
+      if (bv == null) {
+        bv = _pool != null ? _pool.acquire() : new BitVector();
+        _all.add(bv);
+      }
+      return bv;
+    }
+
+    void release(BitVector bv) {
+      _free.push(bv);
+    }
+
+    @Override
+    public void close() {
+      for (BitVector bv : _all) {
+        if (_pool != null)
+          _pool.release(bv);
+        else
+          bv.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package io.bitmagic;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+import static io.bitmagic.core.AbstractBVector.BLOCK_BITS;
+
+/**
+ * Spliterator over non-zero bit positions in the closed interval <code>[pos, to]</code>.
+ * Splits at block boundaries after skipping empty leading blocks with <code>findFirst</code>,
+ * the exact size of every part is taken from <code>countInRange</code> on first request.
+ */
+final class BitSpliterator implements Spliterator.OfLong {
+  private final BitVector _bv;
+  private long _pos;
+  private final long _to;
+  // -1 until computed
+  private long _size;
+
+  BitSpliterator(BitVector bv) {
+    this(bv, 0, bv.findReverse(), -1);
+  }
+
+  private BitSpliterator(BitVector bv, long pos, long to, long size) {
+    _bv = bv;
+    _pos = pos;
+    _to = to;
+    _size = size;
+  }
+
+  // Position of the next non-zero bit or -1, the spliterator is exhausted then
+  private long next() {
+    long p = _pos > _to ? -1 : _bv.findFirst(_pos);
+    if (p < 0 || p > _to) {
+      _pos = _to + 1;
+      _size = 0;
+      return -1;
+    }
+    return p;
+  }
+
+  @Override
+  public boolean tryAdvance(LongConsumer action) {
+    long p = next();
+    if (p < 0)
+      return false;
+    _pos = p + 1;
+    if (_size > 0)
+      _size--;
+    action.accept(p);
+    return true;
+  }
+
+  @Override
+  public void forEachRemaining(LongConsumer action) {
+    for (long p = next(); p >= 0; p = next()) {
+      _pos = p + 1;
+      action.accept(p);
+    }
+  }
+
+  @Override
+  public Spliterator.OfLong trySplit() {
+    long first = next();
+    if (first < 0)
+      return null;
+    _pos = first;
+    long mid = (_pos + (_to - _pos + 1) / 2) / BLOCK_BITS * BLOCK_BITS;
+    if (mid <= _pos)
+      return null;
+    long size = -1;
+    if (_size >= 0) {
+      size = _bv.countInRange(_pos, mid - 1);
+      _size -= size;
+    }
+    BitSpliterator prefix = new BitSpliterator(_bv, _pos, mid - 1, size);
+    _pos = mid;
+    return prefix;
+  }
+
+  @Override
+  public long estimateSize() {
+    if (_size < 0)
+      _size = _pos > _to ? 0 : _bv.countInRange(_pos, _to);
+    return _size;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | DISTINCT | SORTED | NONNULL | SIZED | SUBSIZED;
+  }
+
+  @Override
+  public Comparator<? super Long> getComparator() {
+    // natural order
+    return null;
+  }
+}
@@ -2,11 +2,47 @@ package io.bitmagic;
 
 import io.bitmagic.core.*;
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 public final class BitVector extends AbstractBVector implements Iterable<Long> {
 //  public static long MAX_BITS = 0xFFFFFFFFL;
+  // Max number of positions passed to the native side in one call by the bulk methods
+  private static final int BULK_BATCH = 65536;
+  // Vectors with a smaller span of non-zero bits are counted sequentially by the parallel methods
+  public static final long PARALLEL_MIN_BITS = 256 * BLOCK_BITS;
+  // Smallest range counted by a single parallel task
+  private static final long PARALLEL_LEAF_BITS = 16 * BLOCK_BITS;
+
+  @FunctionalInterface
+  private interface ArrayOp {
+    void apply(long bv, int[] arr);
+  }
+
+  // Per-thread target for the operations on serialized vectors
+  private static final ThreadLocal<BitVector> SCRATCH = ThreadLocal.withInitial(BitVector::new);
+  // Native memory a scratch vector keeps allocated between calls, larger operands have their blocks freed
+  private static final long SCRATCH_MAX_BYTES = 1L << 20;
+
+  static {
+    BitMagicMetrics.register();
+  }
+
+  private long _modCount = 0;
+  private RankSelectIndex _rankSelect;
 
   /**
    * BitMagic version
@@ -61,6 +97,32 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    */
   private BitVector(long bv) { super(bv); }
 
+  /**
+   * Native pointer for a modifying call.
+   */
+  private long mutable() {
+    _modCount++;
+    return getInternal();
+  }
+
+  /**
+   * Number of modifications made so far, used to detect changes by structures derived from the vector.
+   * @return modification counter.
+   */
+  public long getModCount() { return _modCount; }
+
+  /**
+   * Returns the rank/select index of the vector, created on first use.
+   * The index rebuilds itself on the first query after the vector has been modified.
+   *
+   * @return <code>RankSelectIndex</code> object.
+   */
+  public RankSelectIndex rankSelect() {
+    if (_rankSelect == null)
+      _rankSelect = new RankSelectIndex(this);
+    return _rankSelect;
+  }
+
   /**
    * Creates a copy of the bit vector.
    *
@@ -86,7 +148,7 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @param size new requested size.
    */
   public void setSize(long size) {
-    setSize0(getInternal(), size);
+    setSize0(mutable(), size);
   }
 
   /**
@@ -96,7 +158,7 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @param v bit value.
    */
   public void set(long idx, boolean v) {
-    set0(getInternal(), idx, v);
+    set0(mutable(), idx, v);
   }
 
   /**
@@ -105,7 +167,7 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @return carry-over value.
    */
   public int inc(long idx) {
-    return inc0(getInternal(), idx);
+    return inc0(mutable(), idx);
   }
 
   /**
@@ -114,9 +176,10 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @param idx bit position.
    * @param v bit value.
    * @param cond expected previous value.
+   * @return true if the bit was changed.
    */
-  public void setIf(long idx, boolean v, boolean cond) {
-    setConditional0(getInternal(), idx, v, cond);
+  public boolean setIf(long idx, boolean v, boolean cond) {
+    return setConditional0(mutable(), idx, v, cond);
   }
 
   /**
@@ -127,7 +190,7 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @param bs returns expected previous value.
    */
   public void setIf(long idx, boolean v, BooleanSupplier bs) {
-    setConditional0(getInternal(), idx, v, bs.getAsBoolean());
+    setConditional0(mutable(), idx, v, bs.getAsBoolean());
   }
 
   /**
@@ -136,14 +199,146 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @param idx - bit position.
    */
   public void flip(long idx) {
-    flip0(getInternal(), idx);
+    flip0(mutable(), idx);
+  }
+
+  /**
+   * Sets bits at the specified positions. The positions are passed to the native side in batches,
+   * one call per batch instead of one call per bit.
+   *
+   * @param idx bit positions.
+   * @throws IndexOutOfBoundsException if a position is outside <code>[0, MAX_BITS)</code>, no bit is changed then.
+   */
+  public void setBits(long... idx) { bulk(BitVector::orArr0, idx, 0, idx.length); }
+
+  /**
+   * Sets bits at the positions from the array slice.
+   *
+   * @param idx bit positions, treated as unsigned.
+   * @param off slice offset.
+   * @param len slice length.
+   */
+  public void setBits(int[] idx, int off, int len) { bulk(BitVector::orArr0, idx, off, len); }
+
+  /**
+   * Sets bits at the positions remaining in the buffer. The buffer position is advanced to its limit.
+   *
+   * @param idx bit positions.
+   * @throws IndexOutOfBoundsException if a position is outside <code>[0, MAX_BITS)</code>, no bit is changed then.
+   */
+  public void setBits(LongBuffer idx) { bulk(BitVector::orArr0, idx); }
+
+  /**
+   * Clears bits at the specified positions.
+   *
+   * @param idx bit positions.
+   * @throws IndexOutOfBoundsException if a position is outside <code>[0, MAX_BITS)</code>, no bit is changed then.
+   */
+  public void clearBits(long... idx) { bulk(BitVector::subArr0, idx, 0, idx.length); }
+
+  /**
+   * Clears bits at the positions from the array slice.
+   *
+   * @param idx bit positions, treated as unsigned.
+   * @param off slice offset.
+   * @param len slice length.
+   */
+  public void clearBits(int[] idx, int off, int len) { bulk(BitVector::subArr0, idx, off, len); }
+
+  /**
+   * Clears bits at the positions remaining in the buffer. The buffer position is advanced to its limit.
+   *
+   * @param idx bit positions.
+   * @throws IndexOutOfBoundsException if a position is outside <code>[0, MAX_BITS)</code>, no bit is changed then.
+   */
+  public void clearBits(LongBuffer idx) { bulk(BitVector::subArr0, idx); }
+
+  /**
+   * Flips bits at the specified positions. A position listed twice is flipped twice.
+   *
+   * @param idx bit positions.
+   * @throws IndexOutOfBoundsException if a position is outside <code>[0, MAX_BITS)</code>, no bit is changed then.
+   */
+  public void flipBits(long... idx) { bulk(BitVector::xorArr0, idx, 0, idx.length); }
+
+  /**
+   * Flips bits at the positions from the array slice.
+   *
+   * @param idx bit positions, treated as unsigned.
+   * @param off slice offset.
+   * @param len slice length.
+   */
+  public void flipBits(int[] idx, int off, int len) { bulk(BitVector::xorArr0, idx, off, len); }
+
+  /**
+   * Flips bits at the positions remaining in the buffer. The buffer position is advanced to its limit.
+   *
+   * @param idx bit positions.
+   * @throws IndexOutOfBoundsException if a position is outside <code>[0, MAX_BITS)</code>, no bit is changed then.
+   */
+  public void flipBits(LongBuffer idx) { bulk(BitVector::xorArr0, idx); }
+
+  /**
+   * Gets bit values at the specified positions.
+   *
+   * @param idx bit positions.
+   * @param out receives the value of <code>idx[i]</code> at <code>out[i]</code>.
+   * @throws IndexOutOfBoundsException if a position is outside <code>[0, MAX_BITS)</code>.
+   */
+  public void testBits(long[] idx, boolean[] out) {
+    long bv = getInternal();
+    for (int i = 0; i < idx.length; i++)
+      out[i] = get0(bv, position(idx[i]));
+    reachable();
+  }
+
+  /**
+   * Gets bit values at the specified positions packed into words.
+   *
+   * @param idx bit positions.
+   * @param out receives the value of <code>idx[i]</code> in the bit <code>i % 64</code>
+   *            of <code>out[i / 64]</code>. Must hold at least <code>(idx.length + 63) / 64</code> words.
+   * @throws IndexOutOfBoundsException if a position is outside <code>[0, MAX_BITS)</code>.
+   */
+  public void testBits(long[] idx, long[] out) {
+    long bv = getInternal();
+    for (int w = 0, i = 0; i < idx.length; w++) {
+      long word = 0;
+      for (int end = Math.min(i + 64, idx.length), b = 0; i < end; i++, b++) {
+        if (get0(bv, position(idx[i])))
+          word |= 1L << b;
+      }
+      out[w] = word;
+    }
+    reachable();
+  }
+
+  /**
+   * Gets bit values at the positions remaining in the buffer, packed into words.
+   * The buffer position is advanced to its limit.
+   *
+   * @param idx bit positions.
+   * @param out receives the values, see {@link #testBits(long[], long[])}.
+   * @throws IndexOutOfBoundsException if a position is outside <code>[0, MAX_BITS)</code>.
+   */
+  public void testBits(LongBuffer idx, long[] out) {
+    long bv = getInternal();
+    for (int w = 0; idx.hasRemaining(); w++) {
+      long word = 0;
+      for (int b = 0; b < 64 && idx.hasRemaining(); b++) {
+        if (get0(bv, position(idx.get())))
+          word |= 1L << b;
+      }
+      out[w] = word;
+    }
+    reachable();
   }
 
   /**
    * Sets all bits in the vector to 1.
    */
   public void setAll() {
-    setAll0(getInternal());
+    setAll0(mutable());
   }
 
   /**
@@ -155,14 +350,14 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @param v bit value.
    */
   public void setRange(long left, long right, boolean v) {
-    setRange0(getInternal(), left, right, v);
+    setRange0(mutable(), left, right, v);
   }
 
   /**
    * Inverts all bits in the bit vector.
    */
   public void invert() {
-    invert0(getInternal());
+    invert0(mutable());
   }
 
   /**
@@ -171,14 +366,14 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @param freeMem flag to release unused memory.
    */
   public void clear(boolean freeMem) {
-    clear0(getInternal(), freeMem ? 1 : 0);
+    clear0(mutable(), freeMem ? 1 : 0);
   }
 
   /**
    * Sets all bits in the vector to 0. Releases unused memory by default.
    */
   public void clear() {
-    clear0(getInternal(), 1);
+    clear0(mutable(), 1);
   }
 
   /**
@@ -188,7 +383,7 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @return postion of the next non-zero bit, -1 if no non-zero bits left.
    */
   public long extract(long idx) {
-    return extract0(getInternal(), idx);
+    return extract0(mutable(), idx);
   }
 
   /**
@@ -220,6 +415,58 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
     return countInRange0(getInternal(), left, right);
   }
 
+  /**
+   * Returns number of non-zero bits in the vector, counting block ranges concurrently in the common pool.
+   * @return number of non-zero bits.
+   */
+  public long parallelCount() {
+    return parallelCountInRange(0, MAX_BITS - 1, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Returns number of non-zero bits in the vector, counting block ranges concurrently.
+   * @param pool fork-join pool to run in.
+   * @return number of non-zero bits.
+   */
+  public long parallelCount(ForkJoinPool pool) {
+    return parallelCountInRange(0, MAX_BITS - 1, pool);
+  }
+
+  /**
+   * Returns number of non-zero bits in the closed interval <code>[left, right]</code>, counting block ranges
+   * concurrently in the common pool.
+   *
+   * @param left start position.
+   * @param right end position.
+   * @return number of non-zero bits in the range.
+   */
+  public long parallelCountInRange(long left, long right) {
+    return parallelCountInRange(left, right, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Returns number of non-zero bits in the closed interval <code>[left, right]</code>, counting block ranges
+   * concurrently. Vectors whose non-zero bits span less than <code>PARALLEL_MIN_BITS</code> are counted
+   * in the calling thread.
+   * The vector must not be modified during the call.
+   *
+   * @param left start position.
+   * @param right end position.
+   * @param pool fork-join pool to run in.
+   * @return number of non-zero bits in the range.
+   */
+  public long parallelCountInRange(long left, long right, ForkJoinPool pool) {
+    long first = findFirst(left);
+    if (first < 0 || first > right)
+      return 0;
+    long last = Math.min(right, findReverse());
+    long span = last - first + 1;
+    if (span < PARALLEL_MIN_BITS || pool.getParallelism() < 2)
+      return countInRange(first, last);
+    long leaf = span / (pool.getParallelism() * 4L) / BLOCK_BITS * BLOCK_BITS;
+    return pool.invoke(new RangeCount(this, first, last, Math.max(leaf, PARALLEL_LEAF_BITS)));
+  }
+
   /**
    * Checks if there is at lease one non-zero bit in the vector.
    *
@@ -282,7 +529,10 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @return <code>BitVectorStat</code> object.
    */
   public BitVectorStat optimize(OptMode om) {
-    return optimize0(getInternal(), om.ordinal());
+    long start = BitMagicMetrics.start();
+    BitVectorStat stat = optimize0(getInternal(), om.ordinal());
+    BitMagicMetrics.optimized(start);
+    return stat;
   }
 
   /**
@@ -295,11 +545,16 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
 
   /**
    * Performs a logical operation with the specified bit vector.
+   * There is no parallel variant: the native combine may reallocate the top-level block array of the target,
+   * so concurrent writers on one vector are unsafe. {@link Aggregator#combine(OpCode, BitVector, ForkJoinPool)}
+   * combines many operands in parallel into private partial results.
    * @param bv BitVector object.
    * @param code <code>OpCode</code> operation.
    */
   public void op(BitVector bv, OpCode code) {
-    operation0(getInternal(), bv.getInternal(), code.ordinal());
+    long start = BitMagicMetrics.start();
+    operation0(mutable(), bv.getInternal(), code.ordinal());
+    BitMagicMetrics.op(code, start);
   }
 
   /**
@@ -307,7 +562,9 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @param bv BitVector object.
    */
   public void and(BitVector bv) {
-    and0(getInternal(), bv.getInternal());
+    long start = BitMagicMetrics.start();
+    and0(mutable(), bv.getInternal());
+    BitMagicMetrics.op(OpCode.AND, start);
   }
 
   /**
@@ -315,7 +572,9 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @param bv BitVector object.
    */
   public void or(BitVector bv) {
-    or0(getInternal(), bv.getInternal());
+    long start = BitMagicMetrics.start();
+    or0(mutable(), bv.getInternal());
+    BitMagicMetrics.op(OpCode.OR, start);
   }
 
   /**
@@ -323,7 +582,9 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @param bv BitVector object.
    */
   public void sub(BitVector bv) {
-    sub0(getInternal(), bv.getInternal());
+    long start = BitMagicMetrics.start();
+    sub0(mutable(), bv.getInternal());
+    BitMagicMetrics.op(OpCode.SUB, start);
   }
 
   /**
@@ -331,7 +592,9 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    * @param bv BitVector object.
    */
   public void xor(BitVector bv) {
-    xor0(getInternal(), bv.getInternal());
+    long start = BitMagicMetrics.start();
+    xor0(mutable(), bv.getInternal());
+    BitMagicMetrics.op(OpCode.XOR, start);
   }
 
   /**
@@ -339,43 +602,90 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
    *
    * @param arr positions array
    */
-  public void and(int[] arr) { andArr0(getInternal(), arr); }
+  public void and(int[] arr) { andArr0(mutable(), arr); }
 
   /**
    * Performs AND operation with the sorted position array.
    *
    * @param arr array of positions
    */
-  public void andSorted(int[] arr) { andArrSorted0(getInternal(), arr); }
+  public void andSorted(int[] arr) { andArrSorted0(mutable(), arr); }
 
   /**
    * Performs OR operation with the positions array.
    *
    * @param arr positions array
    */
-  public void or(int[] arr) { orArr0(getInternal(), arr); }
+  public void or(int[] arr) { orArr0(mutable(), arr); }
 
   /**
    * Performs XOR operation with the positions array.
    *
    * @param arr positions array
    */
-  public void xor(int[] arr) { xorArr0(getInternal(), arr); }
+  public void xor(int[] arr) { xorArr0(mutable(), arr); }
 
   /**
    * Performs SUB operation with the positions array.
    *
    * @param arr positions array
    */
-  public void sub(int[] arr) { subArr0(getInternal(), arr); }
+  public void sub(int[] arr) { subArr0(mutable(), arr); }
 
   /**
    * Returns iterator over non-zero bits.
    * The iterator in non-reentrant, use from a single thread only.
+   * Use {@link BVIterator#nextLong()} or {@link BVIterator#decode(long[])} to avoid boxing.
    */
   @Override
-  public Iterator<Long> iterator() {
-    return new BVIterator(getInternal());
+  public BVIterator iterator() {
+    return new BVIterator(this);
+  }
+
+  /**
+   * Passes positions of all non-zero bits to <code>action</code> in ascending order.
+   * No objects are allocated per bit.
+   *
+   * @param action bit position consumer.
+   */
+  public void forEachBit(LongConsumer action) {
+    long bv = getInternal();
+    long size = getSize0(bv);
+    for (long idx = findFirst0(bv, 0); idx >= 0; idx = findFirst0(bv, idx + 1)) {
+      action.accept(idx);
+      if (idx + 1 >= size)
+        break;
+    }
+    reachable();
+  }
+
+  /**
+   * Returns a sequential stream of non-zero bit positions in ascending order.
+   *
+   * @return <code>LongStream</code> of bit positions.
+   */
+  public LongStream stream() {
+    return StreamSupport.longStream(spliterator(), false);
+  }
+
+  /**
+   * Returns a parallel stream of non-zero bit positions. The vector is split at block boundaries,
+   * it must not be modified while the stream is processed.
+   *
+   * @return <code>LongStream</code> of bit positions.
+   */
+  public LongStream parallelStream() {
+    return StreamSupport.longStream(spliterator(), true);
+  }
+
+  /**
+   * Returns a sized, splittable spliterator over non-zero bit positions without boxing.
+   *
+   * @return <code>Spliterator.OfLong</code> of bit positions.
+   */
+  @Override
+  public Spliterator.OfLong spliterator() {
+    return new BitSpliterator(this);
   }
 
   /**
@@ -389,9 +699,264 @@ public final class BitVector extends AbstractBVector implements Iterable<Long> {
     // currently max number of bits is 2^32, will fit into
     // the array of _bytes_, including overhead
     byte[] arr = new byte[(int)stat.getMaxSerializeMem()];
+    long start = BitMagicMetrics.start();
     int actual = (int)serialize0(getInternal(), arr);
+    BitMagicMetrics.serialized(actual, start);
     byte[] result = new byte[actual];
     System.arraycopy(arr, 0, result, 0, actual);
     return result;
   }
+
+  /**
+   * Serializes the bit vector into the buffer starting at its current position. The buffer position is advanced
+   * past the written data.
+   * A heap buffer positioned at the start of its backing array with at least
+   * <code>calcStat().getMaxSerializeMem()</code> bytes remaining is written in place, other buffers receive
+   * a copy.
+   *
+   * @param dst destination buffer.
+   * @return number of bytes written.
+   * @throws java.nio.BufferOverflowException if the serialized vector does not fit into the buffer.
+   */
+  public int serialize(ByteBuffer dst) {
+    int max = (int)calcStat().getMaxSerializeMem();
+    if (dst.hasArray() && dst.arrayOffset() + dst.position() == 0 && dst.remaining() >= max) {
+      long start = BitMagicMetrics.start();
+      int actual = (int)serialize0(getInternal(), dst.array());
+      BitMagicMetrics.serialized(actual, start);
+      dst.position(actual);
+      return actual;
+    }
+    byte[] arr = new byte[max];
+    long start = BitMagicMetrics.start();
+    int actual = (int)serialize0(getInternal(), arr);
+    BitMagicMetrics.serialized(actual, start);
+    dst.put(arr, 0, actual);
+    return actual;
+  }
+
+  /**
+   * Deserializes the bytes remaining in the buffer and merges (ORs) them into the bit vector.
+   * The buffer position is advanced to its limit.
+   *
+   * @param src buffer with a serialized bit vector.
+   */
+  public void deserialize(ByteBuffer src) {
+    byte[] arr;
+    if (src.hasArray() && src.arrayOffset() + src.position() == 0 && src.remaining() == src.array().length)
+      arr = src.array();
+    else {
+      arr = new byte[src.remaining()];
+      src.get(arr);
+    }
+    long start = BitMagicMetrics.start();
+    deserialize0(mutable(), arr);
+    BitMagicMetrics.deserialized(arr.length, start);
+    src.position(src.limit());
+  }
+
+  /**
+   * Performs OR operation with a serialized bit vector. The data is merged directly, without creating
+   * an intermediate vector. The buffer position is advanced to its limit.
+   *
+   * @param serialized buffer with a serialized bit vector.
+   */
+  public void or(ByteBuffer serialized) {
+    deserialize(serialized);
+  }
+
+  /**
+   * Performs AND operation with a serialized bit vector. The buffer position is advanced to its limit.
+   *
+   * @param serialized buffer with a serialized bit vector.
+   */
+  public void and(ByteBuffer serialized) {
+    if (isEmpty()) {
+      serialized.position(serialized.limit());
+      return;
+    }
+    withScratch(serialized, s -> {
+      and(s);
+      return 0;
+    });
+  }
+
+  /**
+   * Performs SUB operation with a serialized bit vector. The buffer position is advanced to its limit.
+   *
+   * @param serialized buffer with a serialized bit vector.
+   */
+  public void sub(ByteBuffer serialized) {
+    if (isEmpty()) {
+      serialized.position(serialized.limit());
+      return;
+    }
+    withScratch(serialized, s -> {
+      sub(s);
+      return 0;
+    });
+  }
+
+  /**
+   * Performs XOR operation with a serialized bit vector. The buffer position is advanced to its limit.
+   *
+   * @param serialized buffer with a serialized bit vector.
+   */
+  public void xor(ByteBuffer serialized) {
+    withScratch(serialized, s -> {
+      xor(s);
+      return 0;
+    });
+  }
+
+  /**
+   * Computes the delta that turns <code>base</code> into this vector: the XOR of both, serialized.
+   * Blocks equal in both vectors cancel out and are freed before serialization, so the delta size
+   * follows the number of changed blocks rather than the vector size.
+   * <p>
+   * Only the size scales with the changes: the copy, XOR and optimization visit every block of both vectors,
+   * so computing a delta takes time proportional to the vector size however few bits changed.
+   *
+   * @param base vector the delta is applied to.
+   * @return serialized delta for {@link #applyPatch(ByteBuffer)}.
+   */
+  public byte[] diff(BitVector base) {
+    try (BitVector delta = copy()) {
+      delta.xor(base);
+      delta.optimize(OptMode.GAP_COMPRESS);
+      return delta.toArray();
+    }
+  }
+
+  /**
+   * Applies a delta produced by {@link #diff(BitVector)} with this vector as the base.
+   * The buffer position is advanced to its limit. The delta is fully decoded into a scratch vector and then
+   * XORed in, so applying it is not limited to the changed blocks either.
+   *
+   * @param delta buffer with a serialized delta.
+   */
+  public void applyPatch(ByteBuffer delta) {
+    xor(delta);
+  }
+
+  /**
+   * Applies a delta produced by {@link #diff(BitVector)} with this vector as the base, see
+   * {@link #applyPatch(ByteBuffer)}.
+   *
+   * @param delta serialized delta.
+   */
+  public void applyPatch(byte[] delta) {
+    xor(ByteBuffer.wrap(delta));
+  }
+
+  /**
+   * Returns number of non-zero bits in a serialized bit vector. The buffer position is advanced to its limit.
+   *
+   * @param serialized buffer with a serialized bit vector.
+   * @return number of non-zero bits.
+   */
+  public static long count(ByteBuffer serialized) {
+    return withScratch(serialized, BitVector::count);
+  }
+
+  // Deserializes into the calling thread's scratch vector and applies f to it. The scratch vector keeps its blocks
+  // for the next call unless they take more than SCRATCH_MAX_BYTES.
+  private static long withScratch(ByteBuffer serialized, ToLongFunction<BitVector> f) {
+    BitVector scratch = SCRATCH.get();
+    try {
+      scratch.deserialize(serialized);
+      return f.applyAsLong(scratch);
+    }
+    finally {
+      scratch.clear(scratch.calcStat().getMemoryUsed() > SCRATCH_MAX_BYTES);
+    }
+  }
+
+  /**
+   * Saves the serialized bit vector into a file, replacing its content.
+   * The vector is serialized into a single heap buffer of <code>calcStat().getMaxSerializeMem()</code> bytes and
+   * only the used part is written. The file is forced to the storage device before the method returns.
+   *
+   * @param path file path.
+   * @throws IOException in case of an I/O error.
+   */
+  public void save(Path path) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate((int)calcStat().getMaxSerializeMem());
+    serialize(buf);
+    buf.flip();
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE)) {
+      while (buf.hasRemaining())
+        ch.write(buf);
+      ch.force(true);
+    }
+  }
+
+  /**
+   * Loads a bit vector saved by {@link #save(Path)}.
+   * The whole file is read into one heap array, so it must be smaller than 2 GB. Anything written by
+   * <code>save</code> is smaller, as it is bounded by <code>getMaxSerializeMem()</code>; use
+   * {@link ChunkedSerializer} to stream vectors with memory bounded by the chunk size.
+   *
+   * @param path file path.
+   * @return new <code>BitVector</code> object.
+   * @throws IOException in case of an I/O error.
+   */
+  public static BitVector load(Path path) throws IOException {
+    BitVector bv = new BitVector();
+    bv.deserialize(ByteBuffer.wrap(Files.readAllBytes(path)));
+    return bv;
+  }
+
+  private void bulk(ArrayOp op, int[] idx, int off, int len) {
+    if (off == 0 && len == idx.length)
+      op.apply(mutable(), idx);
+    else
+      op.apply(mutable(), Arrays.copyOfRange(idx, off, off + len));
+  }
+
+  // Native positions are 32-bit, larger or negative ones would wrap onto other bits
+  static long position(long idx) {
+    if (idx < 0 || idx >= MAX_BITS)
+      throw new IndexOutOfBoundsException("Bit position " + idx + " is out of [0, " + MAX_BITS + ")");
+    return idx;
+  }
+
+  private void bulk(ArrayOp op, long[] idx, int off, int len) {
+    // validate first, so an invalid position leaves the vector unchanged
+    for (int i = off, end = off + len; i < end; i++)
+      position(idx[i]);
+    long bv = mutable();
+    int[] batch = new int[Math.min(len, BULK_BATCH)];
+    for (int end = off + len; off < end; ) {
+      int n = Math.min(end - off, BULK_BATCH);
+      if (n != batch.length)
+        batch = new int[n]; // the tail, native side takes the whole array
+      for (int i = 0; i < n; i++)
+        batch[i] = (int)idx[off++];
+      op.apply(bv, batch);
+    }
+    reachable();
+  }
+
+  private void bulk(ArrayOp op, LongBuffer idx) {
+    if (idx.hasArray()) {
+      bulk(op, idx.array(), idx.arrayOffset() + idx.position(), idx.remaining());
+      idx.position(idx.limit());
+      return;
+    }
+    for (int i = idx.position(); i < idx.limit(); i++)
+      position(idx.get(i));
+    long bv = mutable();
+    int[] batch = new int[Math.min(idx.remaining(), BULK_BATCH)];
+    while (idx.hasRemaining()) {
+      int n = Math.min(idx.remaining(), BULK_BATCH);
+      if (n != batch.length)
+        batch = new int[n];
+      for (int i = 0; i < n; i++)
+        batch[i] = (int)idx.get();
+      op.apply(bv, batch);
+    }
+    reachable();
+  }
 }
@@ -0,0 +1,192 @@
+package io.bitmagic;
+
+import io.bitmagic.core.OptMode;
+import io.bitmagic.core.Strategy;
+
+import java.lang.ref.WeakReference;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static io.bitmagic.core.AbstractBVector.MAX_BITS;
+
+/**
+ * Pool of reusable empty bit vectors. Released vectors are cleared with <code>clear(false)</code>, which keeps
+ * their blocks allocated, so the next user skips native allocation.
+ * <p>
+ * Each thread first uses its own small cache, then a shared queue. Once the memory held by the pool exceeds
+ * the high-water mark, released vectors are optimized with <code>OptMode.FREE_ALL_BLOCKS</code> before being
+ * kept. Vectors released to a full pool are closed. The caches of threads that have ended are moved to the shared
+ * queue whenever a new thread starts using the pool, so thread churn does not strand retained vectors.
+ * <p>
+ * The pool is thread-safe. Only return vectors obtained from the same pool, and do not use them after release.
+ */
+public final class BitVectorPool implements AutoCloseable {
+  public static final int DEFAULT_THREAD_CACHE = 4;
+  public static final int DEFAULT_MAX_RETAINED = 256;
+  public static final long DEFAULT_HIGH_WATER_BYTES = 256L << 20;
+
+  private static final class Entry {
+    final BitVector bv;
+    final long bytes;
+
+    Entry(BitVector bv, long bytes) {
+      this.bv = bv;
+      this.bytes = bytes;
+    }
+  }
+
+  // Cache of one thread, weakly referencing it so that the entries can be reclaimed once it ends
+  private static final class ThreadCache {
+    final Deque<Entry> entries = new ConcurrentLinkedDeque<>();
+    final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+
+    boolean isOrphaned() {
+      Thread t = owner.get();
+      return t == null || !t.isAlive();
+    }
+  }
+
+  private final Strategy _strategy;
+  private final int _threadCache;
+  private final int _maxRetained;
+  private final long _highWaterBytes;
+
+  // Per-thread caches, registered so that close() can drain the caches of all threads
+  private final Set<ThreadCache> _caches = ConcurrentHashMap.newKeySet();
+  private final ThreadLocal<ThreadCache> _local = ThreadLocal.withInitial(() -> {
+    reclaimOrphaned();
+    ThreadCache cache = new ThreadCache();
+    _caches.add(cache);
+    return cache;
+  });
+  private final ConcurrentLinkedQueue<Entry> _shared = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger _retained = new AtomicInteger();
+  private final AtomicLong _retainedBytes = new AtomicLong();
+  private final LongAdder _hits = new LongAdder();
+  private final LongAdder _misses = new LongAdder();
+  private final LongAdder _trimmed = new LongAdder();
+  private final LongAdder _discarded = new LongAdder();
+
+  /**
+   * Creates a pool of <code>BM_BIT</code> vectors with default limits.
+   */
+  public BitVectorPool() {
+    this(Strategy.BM_BIT, DEFAULT_THREAD_CACHE, DEFAULT_MAX_RETAINED, DEFAULT_HIGH_WATER_BYTES);
+  }
+
+  /**
+   * General constructor.
+   * @param stg memory management strategy of the created vectors.
+   * @param threadCache max number of vectors cached per thread.
+   * @param maxRetained max number of vectors retained by the pool, including per-thread caches.
+   * @param highWaterBytes native memory held by the pool above which released vectors have their blocks freed.
+   */
+  public BitVectorPool(Strategy stg, int threadCache, int maxRetained, long highWaterBytes) {
+    if (threadCache < 0 || maxRetained < 0 || highWaterBytes < 0)
+      throw new IllegalArgumentException("Pool limits must not be negative");
+    _strategy = stg;
+    _threadCache = threadCache;
+    _maxRetained = maxRetained;
+    _highWaterBytes = highWaterBytes;
+  }
+
+  /**
+   * Returns an empty bit vector of maximum size, reusing a released one if available.
+   * @return empty <code>BitVector</code>.
+   */
+  public BitVector acquire() {
+    Entry e = _local.get().entries.pollFirst();
+    if (e == null)
+      e = _shared.poll();
+    if (e == null) {
+      _misses.increment();
+      return new BitVector(_strategy);
+    }
+    _retained.decrementAndGet();
+    _retainedBytes.addAndGet(-e.bytes);
+    _hits.increment();
+    return e.bv;
+  }
+
+  /**
+   * Returns a bit vector to the pool.
+   * @param bv bit vector obtained from {@link #acquire()}.
+   * @throws IllegalStateException if the vector has been closed.
+   */
+  public void release(BitVector bv) {
+    if (_retained.incrementAndGet() > _maxRetained) {
+      _retained.decrementAndGet();
+      _discarded.increment();
+      bv.close();
+      return;
+    }
+    long bytes;
+    try {
+      bv.clear(false);
+      if (bv.getSize() != MAX_BITS)
+        bv.setSize(MAX_BITS);
+      bytes = bv.calcStat().getMemoryUsed();
+      if (_retainedBytes.get() + bytes > _highWaterBytes) {
+        bytes = bv.optimize(OptMode.FREE_ALL_BLOCKS).getMemoryUsed();
+        _trimmed.increment();
+      }
+    }
+    catch (RuntimeException e) {
+      // not retained
+      _retained.decrementAndGet();
+      throw e;
+    }
+    _retainedBytes.addAndGet(bytes);
+
+    Entry e = new Entry(bv, bytes);
+    ThreadCache local = _local.get();
+    if (local.entries.size() < _threadCache)
+      local.entries.addFirst(e);
+    else
+      _shared.offer(e);
+  }
+
+  /**
+   * Current pool statistics.
+   * @return <code>PoolStat</code> object.
+   */
+  public PoolStat getStat() {
+    return new PoolStat(_hits.sum(), _misses.sum(), _trimmed.sum(), _discarded.sum(), _retained.get(),
+        _retainedBytes.get());
+  }
+
+  /**
+   * Closes the vectors held in the shared queue and in the caches of all threads.
+   * The pool stays usable, vectors released afterwards are retained again.
+   */
+  @Override
+  public void close() {
+    for (ThreadCache cache : _caches)
+      for (Entry e = cache.entries.pollFirst(); e != null; e = cache.entries.pollFirst())
+        drop(e);
+    for (Entry e = _shared.poll(); e != null; e = _shared.poll())
+      drop(e);
+  }
+
+  // Moves the entries of ended threads to the shared queue
+  private void reclaimOrphaned() {
+    for (ThreadCache cache : _caches) {
+      if (cache.isOrphaned() && _caches.remove(cache)) {
+        for (Entry e = cache.entries.pollFirst(); e != null; e = cache.entries.pollFirst())
+          _shared.offer(e);
+      }
+    }
+  }
+
+  private void drop(Entry e) {
+    _retained.decrementAndGet();
+    _retainedBytes.addAndGet(-e.bytes);
+    e.bv.close();
+  }
+}
@@ -0,0 +1,158 @@
+package io.bitmagic;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import static io.bitmagic.core.AbstractBVector.BLOCK_BITS;
+import static io.bitmagic.core.AbstractBVector.MAX_BITS;
+
+/**
+ * Streams a bit vector as a sequence of independently serialized chunks of blocks.
+ * Only one chunk is held in memory at a time, so the extra memory is bounded by the chunk size
+ * rather than the vector size. Empty chunks are not written.
+ * <p>
+ * Stream format: magic, version, chunk size in blocks, then chunks as (length, serialized bytes),
+ * terminated by a zero length.
+ */
+public final class ChunkedSerializer {
+  public static final int DEFAULT_CHUNK_BLOCKS = 1024;
+
+  private static final int MAGIC = 0x424D4353; // "BMCS"
+  private static final int VERSION = 1;
+
+  private final int _chunkBlocks;
+
+  /**
+   * Creates a serializer with <code>DEFAULT_CHUNK_BLOCKS</code> blocks per chunk.
+   */
+  public ChunkedSerializer() {
+    this(DEFAULT_CHUNK_BLOCKS);
+  }
+
+  /**
+   * Creates a serializer.
+   * @param chunkBlocks number of blocks per chunk.
+   */
+  public ChunkedSerializer(int chunkBlocks) {
+    if (chunkBlocks <= 0)
+      throw new IllegalArgumentException("Chunk size must be positive: " + chunkBlocks);
+    _chunkBlocks = chunkBlocks;
+  }
+
+  public int getChunkBlocks() { return _chunkBlocks; }
+
+  /**
+   * Writes the bit vector into the stream. The stream is not closed.
+   *
+   * @param bv bit vector.
+   * @param out output stream.
+   * @return number of bytes written.
+   * @throws IOException in case of an I/O error.
+   */
+  public long write(BitVector bv, OutputStream out) throws IOException {
+    long written = write(bv, Channels.newChannel(out));
+    out.flush();
+    return written;
+  }
+
+  /**
+   * Writes the bit vector into the channel. The channel is not closed.
+   *
+   * @param bv bit vector.
+   * @param ch output channel.
+   * @return number of bytes written.
+   * @throws IOException in case of an I/O error.
+   */
+  public long write(BitVector bv, WritableByteChannel ch) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(12);
+    header.putInt(MAGIC).putInt(VERSION).putInt(_chunkBlocks).flip();
+    long written = writeFully(ch, header);
+
+    long chunkBits = _chunkBlocks * BLOCK_BITS;
+    byte[] buf = new byte[0];
+    try (BitVector chunk = new BitVector()) {
+      for (long idx = bv.findFirst(0); idx >= 0; ) {
+        long left = idx - idx % chunkBits;
+        long right = Math.min(left + chunkBits, MAX_BITS) - 1;
+        chunk.clear(false);
+        chunk.setRange(left, right, true);
+        chunk.and(bv);
+
+        int max = (int)chunk.calcStat().getMaxSerializeMem();
+        if (buf.length < max)
+          buf = new byte[max];
+        int len = chunk.serialize(ByteBuffer.wrap(buf));
+        ByteBuffer frame = ByteBuffer.allocate(4);
+        frame.putInt(len).flip();
+        written += writeFully(ch, frame) + writeFully(ch, ByteBuffer.wrap(buf, 0, len));
+
+        idx = right + 1 < MAX_BITS ? bv.findFirst(right + 1) : -1;
+      }
+    }
+
+    ByteBuffer end = ByteBuffer.allocate(4);
+    end.putInt(0).flip();
+    return written + writeFully(ch, end);
+  }
+
+  /**
+   * Reads a bit vector written by {@link #write(BitVector, OutputStream)}.
+   * The chunk size is taken from the stream.
+   *
+   * @param in input stream.
+   * @return new <code>BitVector</code> object.
+   * @throws IOException in case of an I/O error or malformed stream.
+   */
+  public static BitVector read(InputStream in) throws IOException {
+    BitVector bv = new BitVector();
+    try {
+      read(in, bv);
+    }
+    catch (IOException | RuntimeException e) {
+      bv.close();
+      throw e;
+    }
+    return bv;
+  }
+
+  /**
+   * Reads a bit vector written by {@link #write(BitVector, OutputStream)} and merges (ORs) it into
+   * <code>target</code> chunk by chunk.
+   *
+   * @param in input stream.
+   * @param target bit vector to merge into.
+   * @throws IOException in case of an I/O error or malformed stream.
+   */
+  public static void read(InputStream in, BitVector target) throws IOException {
+    DataInputStream dis = new DataInputStream(in);
+    if (dis.readInt() != MAGIC)
+      throw new StreamCorruptedException("Not a chunked bit vector stream");
+    int version = dis.readInt();
+    if (version != VERSION)
+      throw new StreamCorruptedException("Unsupported chunked stream version " + version);
+    int chunkBlocks = dis.readInt();
+    if (chunkBlocks <= 0)
+      throw new StreamCorruptedException("Invalid chunk size " + chunkBlocks);
+
+    for (int len = dis.readInt(); len != 0; len = dis.readInt()) {
+      if (len < 0)
+        throw new StreamCorruptedException("Invalid chunk length " + len);
+      byte[] buf = new byte[len];
+      dis.readFully(buf);
+      target.deserialize(ByteBuffer.wrap(buf));
+    }
+  }
+
+  private static int writeFully(WritableByteChannel ch, ByteBuffer buf) throws IOException {
+    int n = buf.remaining();
+    while (buf.hasRemaining())
+      ch.write(buf);
+    return n;
+  }
+}
@@ -0,0 +1,225 @@
+package io.bitmagic;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queue of small operations on any number of bit vectors, executed together by {@link #flush()}.
+ * <p>
+ * Commands are encoded into a direct command buffer as (op code, vector, two arguments) records. On flush,
+ * runs of consecutive <code>set</code>, <code>clear</code> or <code>flip</code> commands on the same vector become
+ * a single bulk call, so mixed workloads pay one native transition per run instead of one per bit.
+ * Commands producing a value return a result slot; the values are readable with {@link #result(int)} or
+ * {@link #getResults()} after the flush, until the next flush.
+ * <p>
+ * Commands are executed in enqueue order. If one fails, the commands before it stay applied and the rest of
+ * the queue is dropped. Not thread-safe.
+ */
+public final class CommandBatch {
+  private static final int SET = 0, CLEAR = 1, FLIP = 2, GET = 3, SET_IF = 4, COUNT_RANGE = 5;
+  // op code, vector, arg1, arg2
+  private static final int RECORD = 4 + 4 + 8 + 8;
+
+  private final ByteBuffer _commands;
+  private final LongBuffer _results;
+  private final List<BitVector> _vectors = new ArrayList<>();
+  private final Map<BitVector, Integer> _ids = new IdentityHashMap<>();
+  private int[] _positions = new int[64];
+  private int _slots = 0;
+
+  /**
+   * @param capacity maximum number of commands between flushes.
+   */
+  public CommandBatch(int capacity) {
+    _commands = ByteBuffer.allocateDirect(capacity * RECORD).order(ByteOrder.nativeOrder());
+    _results = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+  }
+
+  /** Number of queued commands. */
+  public int size() { return _commands.position() / RECORD; }
+
+  public boolean isFull() { return !_commands.hasRemaining(); }
+
+  private int id(BitVector bv) {
+    Integer id = _ids.get(bv);
+    if (id == null) {
+      id = _vectors.size();
+      _vectors.add(bv);
+      _ids.put(bv, id);
+    }
+    return id;
+  }
+
+  private void put(int op, BitVector bv, long a1, long a2) {
+    if (isFull())
+      throw new BufferOverflowException();
+    _commands.putInt(op).putInt(id(bv)).putLong(a1).putLong(a2);
+  }
+
+  private int slot(int op, BitVector bv, long a1, long a2) {
+    put(op, bv, a1, a2);
+    return _slots++;
+  }
+
+  /**
+   * Queues <code>bv.set(idx, true)</code>.
+   * @throws BufferOverflowException if the batch is full.
+   * @throws IndexOutOfBoundsException if the position is outside <code>[0, MAX_BITS)</code>.
+   */
+  public CommandBatch set(BitVector bv, long idx) {
+    put(SET, bv, BitVector.position(idx), 0);
+    return this;
+  }
+
+  /**
+   * Queues <code>bv.set(idx, false)</code>.
+   * @throws BufferOverflowException if the batch is full.
+   * @throws IndexOutOfBoundsException if the position is outside <code>[0, MAX_BITS)</code>.
+   */
+  public CommandBatch clear(BitVector bv, long idx) {
+    put(CLEAR, bv, BitVector.position(idx), 0);
+    return this;
+  }
+
+  /**
+   * Queues <code>bv.flip(idx)</code>.
+   * @throws BufferOverflowException if the batch is full.
+   * @throws IndexOutOfBoundsException if the position is outside <code>[0, MAX_BITS)</code>.
+   */
+  public CommandBatch flip(BitVector bv, long idx) {
+    put(FLIP, bv, BitVector.position(idx), 0);
+    return this;
+  }
+
+  /**
+   * Queues <code>bv.get(idx)</code>, the result is 1 or 0.
+   * @return result slot.
+   * @throws BufferOverflowException if the batch is full.
+   * @throws IndexOutOfBoundsException if the position is outside <code>[0, MAX_BITS)</code>.
+   */
+  public int get(BitVector bv, long idx) {
+    return slot(GET, bv, BitVector.position(idx), 0);
+  }
+
+  /**
+   * Queues <code>bv.setIf(idx, v, cond)</code>, the result is 1 if the bit was changed.
+   * @return result slot.
+   * @throws BufferOverflowException if the batch is full.
+   * @throws IndexOutOfBoundsException if the position is outside <code>[0, MAX_BITS)</code>.
+   */
+  public int setIf(BitVector bv, long idx, boolean v, boolean cond) {
+    return slot(SET_IF, bv, BitVector.position(idx), (v ? 1 : 0) | (cond ? 2 : 0));
+  }
+
+  /**
+   * Queues <code>bv.countInRange(left, right)</code>.
+   * @return result slot.
+   * @throws BufferOverflowException if the batch is full.
+   * @throws IndexOutOfBoundsException if a bound is outside <code>[0, MAX_BITS)</code>.
+   * @throws IllegalArgumentException if <code>left &gt; right</code>, as the native count rejects it.
+   */
+  public int countInRange(BitVector bv, long left, long right) {
+    if (BitVector.position(left) > BitVector.position(right))
+      throw new IllegalArgumentException("Range [" + left + ", " + right + "] is reversed");
+    return slot(COUNT_RANGE, bv, left, right);
+  }
+
+  /**
+   * Executes the queued commands and empties the queue, also when a command fails. The commands before the
+   * failing one are applied then and their results are readable.
+   */
+  public void flush() {
+    ByteBuffer cmd = (ByteBuffer)_commands.flip();
+    _results.clear();
+    try {
+      execute(cmd);
+    }
+    finally {
+      _results.flip();
+      _commands.clear();
+      _vectors.clear();
+      _ids.clear();
+      _slots = 0;
+    }
+  }
+
+  private void execute(ByteBuffer cmd) {
+    while (cmd.hasRemaining()) {
+      int op = cmd.getInt();
+      BitVector bv = _vectors.get(cmd.getInt());
+      long a1 = cmd.getLong(), a2 = cmd.getLong();
+      switch (op) {
+        case SET:
+        case CLEAR:
+        case FLIP:
+          bulk(cmd, op, bv, a1);
+          break;
+        case GET:
+          _results.put(bv.get(a1) ? 1 : 0);
+          break;
+        case SET_IF:
+          _results.put(bv.setIf(a1, (a2 & 1) != 0, (a2 & 2) != 0) ? 1 : 0);
+          break;
+        case COUNT_RANGE:
+          _results.put(bv.countInRange(a1, a2));
+          break;
+        default:
+          throw new IllegalStateException("Unknown command " + op);
+      }
+    }
+  }
+
+  // Collects the run of commands equal to (op, bv) starting with the one just read into a single bulk call,
+  // positions were checked when queued so the int cast keeps them as unsigned values
+  private void bulk(ByteBuffer cmd, int op, BitVector bv, long first) {
+    int n = 0;
+    _positions[n++] = (int)first;
+    while (cmd.remaining() >= RECORD && cmd.getInt(cmd.position()) == op
+        && _vectors.get(cmd.getInt(cmd.position() + 4)) == bv) {
+      if (n == _positions.length)
+        _positions = Arrays.copyOf(_positions, n * 2);
+      _positions[n++] = (int)cmd.getLong(cmd.position() + 8);
+      cmd.position(cmd.position() + RECORD);
+    }
+    if (n == 1) {
+      if (op == FLIP)
+        bv.flip(first);
+      else
+        bv.set(first, op == SET);
+      return;
+    }
+    switch (op) {
+      case SET:
+        bv.setBits(_positions, 0, n);
+        break;
+      case CLEAR:
+        bv.clearBits(_positions, 0, n);
+        break;
+      case FLIP:
+        bv.flipBits(_positions, 0, n);
+        break;
+    }
+  }
+
+  /**
+   * @param slot slot returned when the command was queued.
+   * @return result of the last flush.
+   */
+  public long result(int slot) {
+    return _results.get(slot);
+  }
+
+  /**
+   * @return read-only view of the results of the last flush, in slot order.
+   */
+  public LongBuffer getResults() {
+    return _results.asReadOnlyBuffer();
+  }
+}
@@ -0,0 +1,445 @@
+package io.bitmagic;
+
+import io.bitmagic.core.BitVectorStat;
+import io.bitmagic.core.OpCode;
+import io.bitmagic.core.OptMode;
+import io.bitmagic.core.Strategy;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe bit vector.
+ * <p>
+ * Reads share the vector: single-bit reads and whole-vector reads (counts, searches, statistics, snapshots and
+ * serialization) run concurrently and see a consistent state. Every update that changes a bit takes an
+ * exclusive lock. Changing one bit may allocate or convert a block, and the native vector may reallocate its
+ * shared top-level block array to do that. Writers on different blocks are therefore not independent, and
+ * striping them by block is unsafe. Single-bit updates that would not change the bit are detected under the
+ * shared lock and return without taking the exclusive one.
+ */
+public final class ConcurrentBitVector implements AutoCloseable {
+  private static final Object TIE_LOCK = new Object();
+
+  private final BitVector _bv;
+  private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+  /**
+   * Creates an empty vector with the default strategy and maximum size.
+   */
+  public ConcurrentBitVector() {
+    this(new BitVector());
+  }
+
+  /**
+   * Creates an empty vector with the maximum size.
+   * @param stg memory management strategy.
+   */
+  public ConcurrentBitVector(Strategy stg) {
+    this(new BitVector(stg));
+  }
+
+  /**
+   * Wraps a bit vector. The vector must not be used directly afterwards.
+   * @param bv bit vector to take over.
+   */
+  public ConcurrentBitVector(BitVector bv) {
+    _bv = bv;
+  }
+
+  // Runs a read under the shared lock
+  private <T> T shared(Supplier<T> f) {
+    Lock l = _lock.readLock();
+    l.lock();
+    try {
+      return f.get();
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Sets a bit at the specified position.
+   *
+   * @param idx bit position.
+   * @param v bit value.
+   */
+  public void set(long idx, boolean v) {
+    if (get(idx) == v)
+      return;
+    Lock l = _lock.writeLock();
+    l.lock();
+    try {
+      _bv.set(idx, v);
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Gets the bit value at specified position.
+   *
+   * @param idx bit position.
+   * @return bit value.
+   */
+  public boolean get(long idx) {
+    Lock l = _lock.readLock();
+    l.lock();
+    try {
+      return _bv.get(idx);
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Flips a bit.
+   *
+   * @param idx bit position.
+   */
+  public void flip(long idx) {
+    Lock l = _lock.writeLock();
+    l.lock();
+    try {
+      _bv.flip(idx);
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Atomically sets bit only if the previous value at this position equals <code>cond</code>.
+   *
+   * @param idx bit position.
+   * @param v bit value.
+   * @param cond expected previous value.
+   * @return true if the bit has been set.
+   */
+  public boolean setIf(long idx, boolean v, boolean cond) {
+    if (get(idx) != cond)
+      return false;
+    Lock l = _lock.writeLock();
+    l.lock();
+    try {
+      // may have changed before the exclusive lock was taken
+      if (_bv.get(idx) != cond)
+        return false;
+      _bv.set(idx, v);
+      return true;
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Atomically increments the bit at the specified position and returns the carry-over value.
+   *
+   * @param idx bit position.
+   * @return carry-over value.
+   */
+  public int inc(long idx) {
+    Lock l = _lock.writeLock();
+    l.lock();
+    try {
+      return _bv.inc(idx);
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Sets bits in the closed range <code>[left, right]</code>.
+   *
+   * @param left start position.
+   * @param right end position.
+   * @param v bit value.
+   */
+  public void setRange(long left, long right, boolean v) {
+    Lock l = _lock.writeLock();
+    l.lock();
+    try {
+      _bv.setRange(left, right, v);
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Sets all bits in the vector to 0.
+   *
+   * @param freeMem flag to release unused memory.
+   */
+  public void clear(boolean freeMem) {
+    Lock l = _lock.writeLock();
+    l.lock();
+    try {
+      _bv.clear(freeMem);
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Inverts all bits in the bit vector.
+   */
+  public void invert() {
+    Lock l = _lock.writeLock();
+    l.lock();
+    try {
+      _bv.invert();
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Returns number of non-zero bits in the vector.
+   * @return number of non-zero bits.
+   */
+  public long count() {
+    return shared(_bv::count);
+  }
+
+  /**
+   * Returns number of non-zero bits in the closed interval <code>[left, right]</code>.
+   *
+   * @param left start position.
+   * @param right end position.
+   * @return number of non-zero bits in the range.
+   */
+  public long countInRange(long left, long right) {
+    return shared(() -> _bv.countInRange(left, right));
+  }
+
+  /**
+   * Checks if there is at lease one non-zero bit in the vector.
+   *
+   * @return true if a non-zero bit if found.
+   */
+  public boolean nonEmpty() {
+    return shared(_bv::nonEmpty);
+  }
+
+  /**
+   * Looks for the fisrt non-zero bit from the given position.
+   *
+   * @param start start position.
+   * @return bit position or -1 if not found.
+   */
+  public long findFirst(long start) {
+    return shared(() -> _bv.findFirst(start));
+  }
+
+  /**
+   * Looks for the first non-zero bit from the end of the vector.
+   *
+   * @return bit position or -1 if not found.
+   */
+  public long findReverse() {
+    return shared(_bv::findReverse);
+  }
+
+  /**
+   * Passes positions of all non-zero bits to <code>action</code> while updates are locked out.
+   * The action must not update this vector.
+   *
+   * @param action bit position consumer.
+   */
+  public void forEachBit(LongConsumer action) {
+    shared(() -> {
+      _bv.forEachBit(action);
+      return null;
+    });
+  }
+
+  /**
+   * Performs a logical operation with the specified bit vector.
+   * The argument must not be modified concurrently.
+   *
+   * @param bv BitVector object.
+   * @param code <code>OpCode</code> operation.
+   */
+  public void op(BitVector bv, OpCode code) {
+    Lock l = _lock.writeLock();
+    l.lock();
+    try {
+      _bv.op(bv, code);
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Performs a logical operation with another concurrent bit vector. Both vectors are locked exclusively.
+   *
+   * @param cbv ConcurrentBitVector object.
+   * @param code <code>OpCode</code> operation.
+   */
+  public void op(ConcurrentBitVector cbv, OpCode code) {
+    if (cbv == this) {
+      Lock l = _lock.writeLock();
+      l.lock();
+      try {
+        try (BitVector self = _bv.copy()) {
+          _bv.op(self, code);
+        }
+      }
+      finally {
+        l.unlock();
+      }
+      return;
+    }
+    // Fixed lock order prevents deadlocks between a.op(b) and b.op(a)
+    int h1 = System.identityHashCode(this);
+    int h2 = System.identityHashCode(cbv);
+    if (h1 == h2) {
+      synchronized (TIE_LOCK) {
+        opLocked(this, cbv, cbv, code);
+      }
+    }
+    else if (h1 < h2)
+      opLocked(this, cbv, cbv, code);
+    else
+      opLocked(cbv, this, cbv, code);
+  }
+
+  private void opLocked(ConcurrentBitVector first, ConcurrentBitVector second, ConcurrentBitVector arg, OpCode code) {
+    Lock l1 = first._lock.writeLock();
+    l1.lock();
+    try {
+      Lock l2 = second._lock.writeLock();
+      l2.lock();
+      try {
+        _bv.op(arg._bv, code);
+      }
+      finally {
+        l2.unlock();
+      }
+    }
+    finally {
+      l1.unlock();
+    }
+  }
+
+  public void and(BitVector bv) { op(bv, OpCode.AND); }
+  public void or(BitVector bv) { op(bv, OpCode.OR); }
+  public void sub(BitVector bv) { op(bv, OpCode.SUB); }
+  public void xor(BitVector bv) { op(bv, OpCode.XOR); }
+
+  public void and(ConcurrentBitVector cbv) { op(cbv, OpCode.AND); }
+  public void or(ConcurrentBitVector cbv) { op(cbv, OpCode.OR); }
+  public void sub(ConcurrentBitVector cbv) { op(cbv, OpCode.SUB); }
+  public void xor(ConcurrentBitVector cbv) { op(cbv, OpCode.XOR); }
+
+  /**
+   * Performs bit vector memory optimization and returns post optimization statistics.
+   * @param om OptMode value.
+   * @return <code>BitVectorStat</code> object.
+   */
+  public BitVectorStat optimize(OptMode om) {
+    Lock l = _lock.writeLock();
+    l.lock();
+    try {
+      return _bv.optimize(om);
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Calculates bit vector statistics.
+   * @return <code>BitVectorStat</code> object.
+   */
+  public BitVectorStat calcStat() {
+    return shared(_bv::calcStat);
+  }
+
+  /**
+   * Number of modifications of the vector, e.g. for {@link OptimizerService}. Updates are made under the exclusive
+   * lock, so reading the counter under the shared one sees every completed update.
+   * @return modification count.
+   */
+  public long getModCount() {
+    Lock l = _lock.readLock();
+    l.lock();
+    try {
+      return _bv.getModCount();
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Applies the function to the underlying vector while holding the write lock.
+   */
+  <T> T exclusive(Function<BitVector, T> f) {
+    Lock l = _lock.writeLock();
+    l.lock();
+    try {
+      return f.apply(_bv);
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  /**
+   * Creates a consistent copy of the vector.
+   *
+   * @return new <code>BitVector</code> object.
+   */
+  public BitVector snapshot() {
+    return shared(_bv::copy);
+  }
+
+  /**
+   * Serializes a consistent state of the vector into a byte array.
+   * @return serialized array
+   */
+  public byte[] toArray() {
+    return shared(_bv::toArray);
+  }
+
+  /**
+   * Serializes a consistent state of the vector into the buffer, see {@link BitVector#serialize(ByteBuffer)}.
+   *
+   * @param dst destination buffer.
+   * @return number of bytes written.
+   */
+  public int serialize(ByteBuffer dst) {
+    return shared(() -> _bv.serialize(dst));
+  }
+
+  /**
+   * @return true once the vector has been closed.
+   */
+  public boolean isClosed() { return _bv.isClosed(); }
+
+  @Override
+  public void close() {
+    Lock l = _lock.writeLock();
+    l.lock();
+    try {
+      _bv.close();
+    }
+    finally {
+      l.unlock();
+    }
+  }
+}
@@ -0,0 +1,402 @@
+package io.bitmagic;
+
+import io.bitmagic.core.OpCode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Bit vector persisted in a directory as a full snapshot plus an append-only log of the mutations made since.
+ * <p>
+ * Mutations are applied in memory and appended to a log buffer. {@link #sync()} writes the buffer and forces
+ * it to disk; concurrent callers share a single force (group commit), so durability costs one write per batch
+ * of mutations rather than one per mutation. Once the log outgrows the snapshot (or
+ * <code>checkpointBytes</code>), {@link #sync()} takes a new snapshot and starts an empty log, so checkpoint I/O
+ * follows the change volume.
+ * <p>
+ * Opening the directory loads the snapshot and replays the log. A torn last record (a crash during a write) is
+ * detected by its checksum and cut off. If {@link #sync()} fails, the log is cut back to its last durable length
+ * and the unwritten records are kept in the buffer, so a later <code>sync()</code> retries them.
+ * <p>
+ * Files: <code>snapshot</code> (magic, generation, checksum, serialized vector) and <code>log</code> (magic,
+ * generation, then records of length, CRC32, type and arguments). The log is replayed only if its generation
+ * matches the snapshot, which makes the snapshot-then-truncate sequence crash safe.
+ * <p>
+ * The methods are thread-safe. Do not modify the vector returned by {@link #getVector()}.
+ */
+public final class DurableBitVector implements AutoCloseable {
+  public static final long DEFAULT_CHECKPOINT_BYTES = 1L << 20;
+
+  private static final String SNAPSHOT = "snapshot";
+  private static final String LOG = "log";
+  private static final int SNAPSHOT_MAGIC = 0x4e534d42; // "BMSN"
+  private static final int LOG_MAGIC = 0x4c574d42; // "BMWL"
+  private static final int LOG_HEADER = 12;
+  private static final int RECORD_HEADER = 8;
+
+  private static final byte SET = 1, CLEAR = 2, FLIP = 3, SET_RANGE = 4, OP = 5, CLEAR_ALL = 6;
+
+  private final Path _dir;
+  private final long _checkpointBytes;
+  private final BitVector _bv;
+  private final Object _syncLock = new Object();
+  private FileChannel _log;
+  private long _generation;
+  private long _snapshotBytes;
+  private long _logBytes;
+  private ByteBuffer _buffer = ByteBuffer.allocate(64 << 10);
+  private ByteBuffer _spare = ByteBuffer.allocate(64 << 10);
+  private long _appended = 0;
+  private volatile long _durable = 0;
+
+  /**
+   * Opens or creates a vector in the directory with <code>DEFAULT_CHECKPOINT_BYTES</code>.
+   * @param dir directory, created if missing.
+   * @throws IOException in case of an I/O error or corrupted snapshot.
+   */
+  public DurableBitVector(Path dir) throws IOException {
+    this(dir, DEFAULT_CHECKPOINT_BYTES);
+  }
+
+  /**
+   * Opens or creates a vector in the directory.
+   * @param dir directory, created if missing.
+   * @param checkpointBytes log size that triggers a snapshot unless the last snapshot is larger.
+   * @throws IOException in case of an I/O error or corrupted snapshot.
+   */
+  public DurableBitVector(Path dir, long checkpointBytes) throws IOException {
+    _dir = Files.createDirectories(dir);
+    _checkpointBytes = checkpointBytes;
+    _bv = new BitVector();
+    try {
+      loadSnapshot();
+      replay();
+    }
+    catch (IOException | RuntimeException e) {
+      _bv.close();
+      if (_log != null)
+        _log.close();
+      throw e;
+    }
+  }
+
+  private void loadSnapshot() throws IOException {
+    Path snapshot = _dir.resolve(SNAPSHOT);
+    if (!Files.exists(snapshot))
+      return;
+    ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(snapshot));
+    if (buf.remaining() < 16 || buf.getInt() != SNAPSHOT_MAGIC)
+      throw new IOException("Not a snapshot: " + snapshot);
+    _generation = buf.getLong();
+    int crc = buf.getInt();
+    byte[] data = new byte[buf.remaining()];
+    buf.get(data);
+    if (crc != crc(data, 0, data.length))
+      throw new IOException("Snapshot checksum mismatch: " + snapshot);
+    if (data.length > 0)
+      _bv.deserialize(ByteBuffer.wrap(data));
+    _snapshotBytes = data.length;
+  }
+
+  private void replay() throws IOException {
+    Path path = _dir.resolve(LOG);
+    _log = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+    _log.read(header, 0);
+    header.flip();
+    if (header.remaining() < LOG_HEADER || header.getInt() != LOG_MAGIC || header.getLong() != _generation) {
+      // new, or left over from before the last snapshot
+      resetLog();
+      return;
+    }
+    ByteBuffer data = ByteBuffer.allocate((int)(_log.size() - LOG_HEADER));
+    while (data.hasRemaining() && _log.read(data, LOG_HEADER + data.position()) >= 0);
+    data.flip();
+    long valid = LOG_HEADER;
+    while (data.remaining() >= RECORD_HEADER) {
+      int len = data.getInt(data.position()), crc = data.getInt(data.position() + 4);
+      if (len <= 0 || len > data.remaining() - RECORD_HEADER
+          || crc != crc(data.array(), data.position() + RECORD_HEADER, len))
+        break;
+      data.position(data.position() + RECORD_HEADER);
+      ByteBuffer rec = data.slice();
+      rec.limit(len);
+      apply(rec);
+      data.position(data.position() + len);
+      valid += RECORD_HEADER + len;
+    }
+    // drop a torn tail
+    _log.truncate(valid);
+    _log.position(valid);
+    _logBytes = valid - LOG_HEADER;
+  }
+
+  private void apply(ByteBuffer rec) {
+    switch (rec.get()) {
+      case SET:
+        _bv.set(rec.getLong(), true);
+        break;
+      case CLEAR:
+        _bv.set(rec.getLong(), false);
+        break;
+      case FLIP:
+        _bv.flip(rec.getLong());
+        break;
+      case SET_RANGE:
+        _bv.setRange(rec.getLong(), rec.getLong(), rec.get() != 0);
+        break;
+      case OP:
+        OpCode code = OpCode.values()[rec.get()];
+        switch (code) {
+          case AND: _bv.and(rec); break;
+          case OR: _bv.or(rec); break;
+          case SUB: _bv.sub(rec); break;
+          case XOR: _bv.xor(rec); break;
+        }
+        break;
+      case CLEAR_ALL:
+        _bv.clear();
+        break;
+      default:
+        throw new IllegalStateException("Unknown log record");
+    }
+  }
+
+  private void resetLog() throws IOException {
+    _log.truncate(0);
+    ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+    header.putInt(LOG_MAGIC).putLong(_generation).flip();
+    while (header.hasRemaining())
+      _log.write(header, header.position());
+    _log.force(true);
+    _log.position(LOG_HEADER);
+    _logBytes = 0;
+  }
+
+  private static int crc(byte[] b, int off, int len) {
+    CRC32 crc = new CRC32();
+    crc.update(b, off, len);
+    return (int)crc.getValue();
+  }
+
+  // Appends a record whose body has been written by the caller after reserve()
+  private ByteBuffer reserve(int len) {
+    if (_buffer.remaining() < RECORD_HEADER + len) {
+      ByteBuffer b = ByteBuffer.allocate(Math.max(_buffer.capacity() * 2, _buffer.position() + RECORD_HEADER + len));
+      _buffer.flip();
+      b.put(_buffer);
+      _buffer = b;
+    }
+    _buffer.putInt(len).putInt(0);
+    return _buffer;
+  }
+
+  private void commitRecord(int start, int len) {
+    _buffer.putInt(start + 4, crc(_buffer.array(), start + RECORD_HEADER, len));
+    _appended++;
+  }
+
+  private void log(byte type, long a) {
+    int start = _buffer.position();
+    reserve(9).put(type).putLong(a);
+    commitRecord(start, 9);
+  }
+
+  public synchronized void set(long idx, boolean v) {
+    _bv.set(idx, v);
+    log(v ? SET : CLEAR, idx);
+  }
+
+  public synchronized void flip(long idx) {
+    _bv.flip(idx);
+    log(FLIP, idx);
+  }
+
+  /**
+   * Sets bits in the closed range <code>[left, right]</code>.
+   */
+  public synchronized void setRange(long left, long right, boolean v) {
+    _bv.setRange(left, right, v);
+    int start = _buffer.position();
+    reserve(18).put(SET_RANGE).putLong(left).putLong(right).put((byte)(v ? 1 : 0));
+    commitRecord(start, 18);
+  }
+
+  /**
+   * Performs a logical operation, the operand is logged in serialized form.
+   */
+  public synchronized void op(BitVector bv, OpCode code) {
+    byte[] operand = bv.toArray();
+    _bv.op(bv, code);
+    int start = _buffer.position();
+    reserve(2 + operand.length).put(OP).put((byte)code.ordinal()).put(operand);
+    commitRecord(start, 2 + operand.length);
+  }
+
+  public void and(BitVector bv) { op(bv, OpCode.AND); }
+  public void or(BitVector bv) { op(bv, OpCode.OR); }
+  public void sub(BitVector bv) { op(bv, OpCode.SUB); }
+  public void xor(BitVector bv) { op(bv, OpCode.XOR); }
+
+  public synchronized void clear() {
+    _bv.clear();
+    int start = _buffer.position();
+    reserve(1).put(CLEAR_ALL);
+    commitRecord(start, 1);
+  }
+
+  public synchronized boolean get(long idx) { return _bv.get(idx); }
+
+  public synchronized long count() { return _bv.count(); }
+
+  /**
+   * Underlying vector, for read-only use while holding the lock of this object.
+   * @return <code>BitVector</code> object.
+   */
+  public BitVector getVector() { return _bv; }
+
+  /**
+   * @return generation of the current snapshot, incremented by every checkpoint.
+   */
+  public synchronized long getGeneration() { return _generation; }
+
+  /**
+   * @return bytes of log records written since the last snapshot, not counting buffered ones.
+   */
+  public synchronized long getLogBytes() { return _logBytes; }
+
+  /**
+   * Makes all mutations so far durable. A snapshot is taken once the log becomes larger than
+   * the checkpoint threshold.
+   * @throws IOException in case of an I/O error.
+   */
+  public void sync() throws IOException {
+    long target;
+    synchronized (this) {
+      target = _appended;
+    }
+    synchronized (_syncLock) {
+      if (_durable >= target)
+        return; // written by a concurrent sync
+      ByteBuffer out;
+      long upTo;
+      synchronized (this) {
+        out = _buffer;
+        _buffer = _spare;
+        upTo = _appended;
+      }
+      out.flip();
+      long bytes = out.remaining();
+      try {
+        while (out.hasRemaining())
+          _log.write(out);
+        _log.force(false);
+      }
+      catch (IOException | RuntimeException e) {
+        restore(out, e);
+        throw e;
+      }
+      out.clear();
+      boolean checkpoint;
+      synchronized (this) {
+        _spare = out;
+        _logBytes += bytes;
+        checkpoint = _logBytes > Math.max(_checkpointBytes, _snapshotBytes);
+      }
+      _durable = upTo;
+      if (checkpoint)
+        checkpoint();
+    }
+  }
+
+  // Puts the records of a failed write back ahead of the ones appended since and cuts the log back to its
+  // durable length, so that it holds whole records only
+  private void restore(ByteBuffer out, Exception cause) {
+    synchronized (this) {
+      out.position(out.limit()).limit(out.capacity());
+      _buffer.flip();
+      if (out.remaining() < _buffer.remaining()) {
+        ByteBuffer b = ByteBuffer.allocate(out.position() + _buffer.remaining());
+        out.flip();
+        b.put(out);
+        out = b;
+      }
+      out.put(_buffer);
+      _spare = (ByteBuffer)_buffer.clear();
+      _buffer = out;
+    }
+    try {
+      _log.truncate(LOG_HEADER + _logBytes);
+      _log.position(LOG_HEADER + _logBytes);
+    }
+    catch (IOException e) {
+      cause.addSuppressed(e);
+    }
+  }
+
+  /**
+   * Writes a full snapshot and starts an empty log (compaction).
+   * @throws IOException in case of an I/O error.
+   */
+  public void checkpoint() throws IOException {
+    synchronized (_syncLock) {
+      synchronized (this) {
+        byte[] data = _bv.toArray();
+        Path tmp = _dir.resolve(SNAPSHOT + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putInt(SNAPSHOT_MAGIC).putLong(_generation + 1).putInt(crc(data, 0, data.length)).flip();
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+          ByteBuffer body = ByteBuffer.wrap(data);
+          while (header.hasRemaining() || body.hasRemaining())
+            ch.write(new ByteBuffer[] { header, body });
+          ch.force(true);
+        }
+        try {
+          Files.move(tmp, _dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+          Files.move(tmp, _dir.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING);
+        }
+        // the rename must be durable before the log it replaces is emptied
+        if (_dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+          try (FileChannel dir = FileChannel.open(_dir, StandardOpenOption.READ)) {
+            dir.force(true);
+          }
+        }
+        _generation++;
+        _snapshotBytes = data.length;
+        // buffered records are covered by the snapshot
+        _buffer.clear();
+        _durable = _appended;
+        resetLog();
+      }
+    }
+  }
+
+  /**
+   * Syncs and closes the files and the vector.
+   * @throws IOException in case of an I/O error.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      sync();
+    }
+    finally {
+      synchronized (_syncLock) {
+        synchronized (this) {
+          _log.close();
+          _bv.close();
+        }
+      }
+    }
+  }
+}
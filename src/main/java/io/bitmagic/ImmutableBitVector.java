@@ -0,0 +1,195 @@
+package io.bitmagic;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+import static io.bitmagic.SharedChunk.CHUNKS;
+
+/**
+ * Read-only version of a {@link VersionedBitVector}. Safe to read from any number of threads while the writer
+ * keeps modifying the versioned vector.
+ * <p>
+ * Each {@link VersionedBitVector#snapshot()} call must be paired with {@link #close()}. The memory of a version is
+ * released when its last holder closes it; parts unchanged between versions are shared.
+ */
+public final class ImmutableBitVector implements AutoCloseable {
+  private final SharedChunk[] _chunks;
+  private final AtomicInteger _refs = new AtomicInteger(1);
+  private volatile long _count = -1;
+
+  // Takes over the chunk references
+  ImmutableBitVector(SharedChunk[] chunks) {
+    _chunks = chunks;
+  }
+
+  ImmutableBitVector retain() {
+    _refs.incrementAndGet();
+    return this;
+  }
+
+  /**
+   * Gets the bit value at specified position.
+   *
+   * @param idx bit position.
+   * @return bit value.
+   */
+  public boolean get(long idx) {
+    SharedChunk c = _chunks[SharedChunk.index(idx)];
+    return c != null && c.bv.get(idx);
+  }
+
+  /**
+   * Returns number of non-zero bits. Computed once per version.
+   * @return number of non-zero bits.
+   */
+  public long count() {
+    long count = _count;
+    if (count < 0) {
+      count = 0;
+      for (SharedChunk c : _chunks) {
+        if (c != null)
+          count += c.bv.count();
+      }
+      _count = count;
+    }
+    return count;
+  }
+
+  /**
+   * Returns number of non-zero bits in the closed interval <code>[left, right]</code>.
+   *
+   * @param left start position.
+   * @param right end position.
+   * @return number of non-zero bits in the range.
+   */
+  public long countInRange(long left, long right) {
+    long count = 0;
+    for (int i = SharedChunk.index(left); i <= SharedChunk.index(right); i++) {
+      SharedChunk c = _chunks[i];
+      if (c != null)
+        count += c.bv.countInRange(Math.max(left, SharedChunk.left(i)), Math.min(right, SharedChunk.right(i)));
+    }
+    return count;
+  }
+
+  /**
+   * Checks if there is at lease one non-zero bit in the vector.
+   *
+   * @return true if a non-zero bit if found.
+   */
+  public boolean nonEmpty() {
+    return findFirst(0) >= 0;
+  }
+
+  /**
+   * Checks if all bits in the vector are zero.
+   * @return true if all bits in the vector are zero.
+   */
+  public boolean isEmpty() {
+    return !nonEmpty();
+  }
+
+  /**
+   * Looks for the fisrt non-zero bit from the given position.
+   *
+   * @param start start position.
+   * @return bit position or -1 if not found.
+   */
+  public long findFirst(long start) {
+    for (int i = SharedChunk.index(start); i < CHUNKS; i++) {
+      SharedChunk c = _chunks[i];
+      if (c != null) {
+        long idx = c.bv.findFirst(Math.max(start, SharedChunk.left(i)));
+        if (idx >= 0)
+          return idx;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Looks for the first non-zero bit from the beginning of the vector.
+   *
+   * @return bit position or -1 if not found.
+   */
+  public long findFirst() {
+    return findFirst(0);
+  }
+
+  /**
+   * Looks for the first non-zero bit from the end of the vector.
+   *
+   * @return bit position or -1 if not found.
+   */
+  public long findReverse() {
+    for (int i = CHUNKS - 1; i >= 0; i--) {
+      SharedChunk c = _chunks[i];
+      if (c != null) {
+        long idx = c.bv.findReverse();
+        if (idx >= 0)
+          return idx;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Passes positions of all non-zero bits to <code>action</code> in ascending order.
+   *
+   * @param action bit position consumer.
+   */
+  public void forEachBit(LongConsumer action) {
+    for (SharedChunk c : _chunks) {
+      if (c != null)
+        c.bv.forEachBit(action);
+    }
+  }
+
+  /**
+   * Returns a sequential stream of non-zero bit positions in ascending order.
+   *
+   * @return <code>LongStream</code> of bit positions.
+   */
+  public LongStream stream() {
+    return Arrays.stream(_chunks).filter(c -> c != null).flatMapToLong(c -> c.bv.stream());
+  }
+
+  /**
+   * Materializes this version into a new mutable bit vector.
+   *
+   * @return new <code>BitVector</code> object.
+   */
+  public BitVector toBitVector() {
+    BitVector bv = new BitVector();
+    for (SharedChunk c : _chunks) {
+      if (c != null)
+        bv.or(c.bv);
+    }
+    return bv;
+  }
+
+  /**
+   * Serializes this version into a byte array.
+   * @return serialized array
+   */
+  public byte[] toArray() {
+    try (BitVector bv = toBitVector()) {
+      return bv.toArray();
+    }
+  }
+
+  /**
+   * Releases this holder's reference to the version. The version must not be used by this holder afterwards.
+   */
+  @Override
+  public void close() {
+    if (_refs.decrementAndGet() == 0) {
+      for (SharedChunk c : _chunks) {
+        if (c != null)
+          c.release();
+      }
+    }
+  }
+}
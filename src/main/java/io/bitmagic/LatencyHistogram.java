@@ -0,0 +1,64 @@
+package io.bitmagic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two nanosecond buckets.
+ */
+final class LatencyHistogram {
+  private static final int BUCKETS = 64;
+
+  // bucket 0 counts zero latencies, bucket i > 0 counts latencies in [2^(i-1), 2^i) ns
+  private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder _count = new LongAdder();
+  private final LongAdder _totalNanos = new LongAdder();
+
+  void record(long nanos) {
+    if (nanos < 0)
+      nanos = 0;
+    _buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+    _count.increment();
+    _totalNanos.add(nanos);
+  }
+
+  long count() { return _count.sum(); }
+
+  long totalNanos() { return _totalNanos.sum(); }
+
+  double meanNanos() {
+    long n = _count.sum();
+    return n == 0 ? 0 : (double)_totalNanos.sum() / n;
+  }
+
+  /**
+   * Upper bound of the bucket holding the given percentile.
+   * @param p percentile, 0 to 100.
+   * @return latency upper bound in nanoseconds.
+   */
+  long percentileNanos(double p) {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = _buckets.get(i);
+      total += counts[i];
+    }
+    if (total == 0)
+      return 0;
+    long rank = (long)Math.ceil(total * p / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= Math.max(rank, 1))
+        return i == 0 ? 0 : (1L << i) - 1;
+    }
+    return Long.MAX_VALUE;
+  }
+
+  void reset() {
+    for (int i = 0; i < BUCKETS; i++)
+      _buckets.set(i, 0);
+    _count.reset();
+    _totalNanos.reset();
+  }
+}
@@ -0,0 +1,252 @@
+package io.bitmagic;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.bitmagic.core.BitVectorStat;
+import io.bitmagic.core.NativeLoader;
+import io.bitmagic.core.OptMode;
+
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background memory optimization of registered bit vectors.
+ * <p>
+ * Vectors modified at least <code>mutation-threshold</code> times since their last optimization are
+ * optimized on a background scheduler, reclaiming bit blocks left behind when a dense vector is thinned out.
+ * Memory used before and after is taken from <code>calcStat()</code> and <code>optimize()</code>, the difference
+ * is reported as reclaimed bytes.
+ * <p>
+ * Settings are read from the <code>bitmagic.optimizer</code> section of the Typesafe config, defaults are
+ * in <code>reference.conf</code>:
+ * <pre>
+ * bitmagic.optimizer {
+ *   interval = 30s
+ *   mutation-threshold = 100000
+ *   mode = GAP_COMPRESS
+ * }
+ * </pre>
+ * A <code>BitVector</code> is optimized while synchronized on it, so every thread using a registered vector,
+ * readers and iterators included, must synchronize on it too: optimization converts blocks in place.
+ * A <code>ConcurrentBitVector</code> is optimized under its own write lock and needs no extra locking.
+ * Vectors are weakly referenced; closed or collected vectors are dropped automatically. A failure while
+ * optimizing one vector or in the listener is logged through {@link NativeLoader#logger()} and does not stop
+ * the pass or the scheduler.
+ */
+public final class OptimizerService implements AutoCloseable {
+  public static final String CONFIG_PATH = "bitmagic.optimizer";
+
+  /**
+   * Receives the statistics of every optimized vector.
+   */
+  @FunctionalInterface
+  public interface Listener {
+    /**
+     * @param vector optimized <code>BitVector</code> or <code>ConcurrentBitVector</code>.
+     * @param before statistics before the optimization.
+     * @param after statistics after the optimization.
+     */
+    void optimized(Object vector, BitVectorStat before, BitVectorStat after);
+  }
+
+  private abstract static class Entry<T> extends WeakReference<T> {
+    long lastModCount;
+
+    Entry(T vector, long modCount) {
+      super(vector);
+      lastModCount = modCount;
+    }
+
+    abstract boolean isClosed(T vector);
+
+    abstract long modCount(T vector);
+
+    // returns { before, after }
+    abstract BitVectorStat[] optimize(T vector, OptMode mode);
+  }
+
+  private static final class PlainEntry extends Entry<BitVector> {
+    PlainEntry(BitVector bv) { super(bv, bv.getModCount()); }
+
+    @Override
+    boolean isClosed(BitVector bv) { return bv.isClosed(); }
+
+    @Override
+    long modCount(BitVector bv) {
+      synchronized (bv) {
+        return bv.getModCount();
+      }
+    }
+
+    @Override
+    BitVectorStat[] optimize(BitVector bv, OptMode mode) {
+      synchronized (bv) {
+        return optimizeLocked(bv, mode);
+      }
+    }
+  }
+
+  private static final class ConcurrentEntry extends Entry<ConcurrentBitVector> {
+    ConcurrentEntry(ConcurrentBitVector cbv) { super(cbv, cbv.getModCount()); }
+
+    @Override
+    boolean isClosed(ConcurrentBitVector cbv) { return cbv.isClosed(); }
+
+    @Override
+    long modCount(ConcurrentBitVector cbv) { return cbv.getModCount(); }
+
+    @Override
+    BitVectorStat[] optimize(ConcurrentBitVector cbv, OptMode mode) {
+      return cbv.exclusive(bv -> optimizeLocked(bv, mode));
+    }
+  }
+
+  // bitmagic.optimizer section, read once
+  private static final class Settings {
+    final long interval;
+    final long threshold;
+    final OptMode mode;
+
+    Settings(Config section) {
+      interval = section.getDuration("interval", TimeUnit.MILLISECONDS);
+      threshold = section.getLong("mutation-threshold");
+      mode = section.getEnum(OptMode.class, "mode");
+    }
+  }
+
+  private static BitVectorStat[] optimizeLocked(BitVector bv, OptMode mode) {
+    BitVectorStat before = bv.calcStat();
+    BitVectorStat after = bv.optimize(mode);
+    return new BitVectorStat[] { before, after };
+  }
+
+  private final long _threshold;
+  private final OptMode _mode;
+  private final ScheduledExecutorService _scheduler;
+  private final Set<Entry<?>> _entries = ConcurrentHashMap.newKeySet();
+  private final LongAdder _passes = new LongAdder();
+  private final LongAdder _optimized = new LongAdder();
+  private final LongAdder _reclaimed = new LongAdder();
+  private volatile Listener _listener;
+
+  /**
+   * Creates a service configured by <code>ConfigFactory.load()</code>.
+   */
+  public OptimizerService() {
+    this(ConfigFactory.load());
+  }
+
+  /**
+   * Creates a service configured by the <code>bitmagic.optimizer</code> section of the config.
+   * @param config application config.
+   */
+  public OptimizerService(Config config) {
+    this(new Settings(config.getConfig(CONFIG_PATH)));
+  }
+
+  private OptimizerService(Settings s) {
+    this(s.interval, TimeUnit.MILLISECONDS, s.threshold, s.mode);
+  }
+
+  /**
+   * @param interval period between checks, 0 disables the scheduler so that only {@link #runOnce()} optimizes.
+   * @param unit interval unit.
+   * @param threshold modifications since the last optimization that make a vector eligible.
+   * @param mode optimization mode.
+   */
+  public OptimizerService(long interval, TimeUnit unit, long threshold, OptMode mode) {
+    if (interval < 0 || threshold < 0)
+      throw new IllegalArgumentException("Invalid optimizer settings");
+    _threshold = threshold;
+    _mode = mode;
+    if (interval > 0) {
+      // passes never overlap, one thread is all the scheduler can use
+      _scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "bitmagic-optimizer");
+        t.setDaemon(true);
+        return t;
+      });
+      _scheduler.scheduleWithFixedDelay(this::runOnce, interval, interval, unit);
+    }
+    else
+      _scheduler = null;
+  }
+
+  public void setListener(Listener listener) { _listener = listener; }
+
+  public void register(BitVector bv) { _entries.add(new PlainEntry(bv)); }
+
+  public void register(ConcurrentBitVector cbv) { _entries.add(new ConcurrentEntry(cbv)); }
+
+  /**
+   * Stops tracking the vector, which is either a <code>BitVector</code> or a <code>ConcurrentBitVector</code>.
+   * @param vector registered vector.
+   */
+  public void unregister(Object vector) {
+    _entries.removeIf(e -> e.get() == vector);
+  }
+
+  /**
+   * Optimizes every registered vector that reached the mutation threshold. Called by the scheduler, may also
+   * be called directly.
+   * @return bytes reclaimed by this pass.
+   */
+  public synchronized long runOnce() {
+    long reclaimed = 0;
+    for (Entry<?> e : _entries) {
+      try {
+        reclaimed += check(e);
+      }
+      catch (RuntimeException ex) {
+        NativeLoader.logger().warn("Bit vector optimization failed.", ex);
+      }
+    }
+    _passes.increment();
+    return reclaimed;
+  }
+
+  private <T> long check(Entry<T> e) {
+    T vector = e.get();
+    if (vector == null || e.isClosed(vector)) {
+      _entries.remove(e);
+      return 0;
+    }
+    long mc = e.modCount(vector);
+    if (mc - e.lastModCount < _threshold)
+      return 0;
+    BitVectorStat[] stat = e.optimize(vector, _mode);
+    e.lastModCount = e.modCount(vector);
+    long reclaimed = Math.max(0, stat[0].getMemoryUsed() - stat[1].getMemoryUsed());
+    _optimized.increment();
+    _reclaimed.add(reclaimed);
+    Listener l = _listener;
+    if (l != null) {
+      try {
+        l.optimized(vector, stat[0], stat[1]);
+      }
+      catch (RuntimeException ex) {
+        NativeLoader.logger().warn("Optimizer listener failed.", ex);
+      }
+    }
+    return reclaimed;
+  }
+
+  public OptimizerStat getStat() {
+    return new OptimizerStat(_passes.sum(), _optimized.sum(), _reclaimed.sum(), _entries.size());
+  }
+
+  /**
+   * Stops the scheduler and forgets the registered vectors. The vectors themselves are not closed.
+   */
+  @Override
+  public void close() {
+    if (_scheduler != null)
+      _scheduler.shutdownNow();
+    _entries.clear();
+  }
+}
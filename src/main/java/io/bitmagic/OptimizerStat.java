@@ -0,0 +1,33 @@
+package io.bitmagic;
+
+/**
+ * <code>OptimizerService</code> statistics.
+ */
+public class OptimizerStat {
+  private long _passes;
+  private long _optimized;
+  private long _reclaimedBytes;
+  private long _registered;
+
+  public OptimizerStat(long passes, long optimized, long reclaimedBytes, long registered) {
+    _passes = passes;
+    _optimized = optimized;
+    _reclaimedBytes = reclaimedBytes;
+    _registered = registered;
+  }
+
+  /** Completed checks of the registered vectors. */
+  public long getPasses() { return _passes; }
+  /** Vectors optimized so far. */
+  public long getOptimized() { return _optimized; }
+  /** Native memory released by the optimizations, per <code>BitVectorStat.getMemoryUsed()</code>. */
+  public long getReclaimedBytes() { return _reclaimedBytes; }
+  /** Vectors currently registered. */
+  public long getRegistered() { return _registered; }
+
+  @Override
+  public String toString() {
+    return "Passes: " + _passes + ", optimized: " + _optimized + ", reclaimed bytes: " + _reclaimedBytes
+        + ", registered: " + _registered;
+  }
+}
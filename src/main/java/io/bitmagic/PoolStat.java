@@ -0,0 +1,41 @@
+package io.bitmagic;
+
+/**
+ * <code>BitVectorPool</code> statistics.
+ */
+public class PoolStat {
+  private long _hits;
+  private long _misses;
+  private long _trimmed;
+  private long _discarded;
+  private long _retainedVectors;
+  private long _retainedBytes;
+
+  public PoolStat(long hits, long misses, long trimmed, long discarded, long rv, long rb) {
+    _hits = hits;
+    _misses = misses;
+    _trimmed = trimmed;
+    _discarded = discarded;
+    _retainedVectors = rv;
+    _retainedBytes = rb;
+  }
+
+  /** Acquisitions served from the pool. */
+  public long getHits() { return _hits; }
+  /** Acquisitions that created a new vector. */
+  public long getMisses() { return _misses; }
+  /** Released vectors whose blocks were freed because the pool was above its high-water mark. */
+  public long getTrimmed() { return _trimmed; }
+  /** Released vectors closed because the pool was full. */
+  public long getDiscarded() { return _discarded; }
+  /** Vectors currently held by the pool, including per-thread caches. */
+  public long getRetainedVectors() { return _retainedVectors; }
+  /** Native memory held by the pooled vectors. */
+  public long getRetainedBytes() { return _retainedBytes; }
+
+  @Override
+  public String toString() {
+    return "Hits: " + _hits + ", misses: " + _misses + ", trimmed: " + _trimmed + ", discarded: " + _discarded
+        + ", retained vectors: " + _retainedVectors + ", retained bytes: " + _retainedBytes;
+  }
+}
@@ -0,0 +1,39 @@
+package io.bitmagic;
+
+import java.util.concurrent.RecursiveTask;
+
+import static io.bitmagic.core.AbstractBVector.BLOCK_BITS;
+
+/**
+ * Counts non-zero bits in the closed interval <code>[left, right]</code> by splitting it into
+ * block-aligned ranges of at most <code>leaf</code> bits counted concurrently.
+ */
+final class RangeCount extends RecursiveTask<Long> {
+  private static final long serialVersionUID = 1L;
+
+  private final BitVector _bv;
+  private final long _left;
+  private final long _right;
+  private final long _leaf;
+
+  RangeCount(BitVector bv, long left, long right, long leaf) {
+    _bv = bv;
+    _left = left;
+    _right = right;
+    _leaf = leaf;
+  }
+
+  @Override
+  protected Long compute() {
+    long len = _right - _left + 1;
+    if (len <= _leaf)
+      return _bv.countInRange(_left, _right);
+    long mid = (_left + len / 2) / BLOCK_BITS * BLOCK_BITS;
+    if (mid <= _left)
+      mid = _left + _leaf;
+    RangeCount lo = new RangeCount(_bv, _left, mid - 1, _leaf);
+    lo.fork();
+    long hi = new RangeCount(_bv, mid, _right, _leaf).compute();
+    return lo.join() + hi;
+  }
+}
@@ -0,0 +1,122 @@
+package io.bitmagic;
+
+import java.util.Arrays;
+
+import static io.bitmagic.core.AbstractBVector.BLOCK_BITS;
+import static io.bitmagic.core.AbstractBVector.MAX_BITS;
+
+/**
+ * Rank/select acceleration structure of a bit vector.
+ * <p>
+ * Keeps cumulative non-zero bit counts per block up to the last non-empty block. Rank is answered with one lookup
+ * plus a count within a single block, select with a binary search over the blocks followed by a binary search
+ * within the block.
+ * <p>
+ * The index tracks {@link BitVector#getModCount()} and rebuilds itself on the first query after the vector has
+ * changed, so it pays off on mostly-read vectors. Building costs one native count per non-empty block.
+ * Not thread-safe.
+ */
+public final class RankSelectIndex {
+  private final BitVector _bv;
+  // _cum[b] - number of non-zero bits in blocks [0, b)
+  private long[] _cum = new long[1];
+  private long _modCount = -1;
+
+  public RankSelectIndex(BitVector bv) {
+    _bv = bv;
+  }
+
+  /**
+   * Checks if the index reflects the current vector state.
+   * @return true if no rebuild is needed.
+   */
+  public boolean isValid() {
+    return _modCount == _bv.getModCount();
+  }
+
+  /**
+   * Rebuilds the index from the vector.
+   */
+  public void rebuild() {
+    long modCount = _bv.getModCount();
+    long last = _bv.findReverse();
+    int blocks = last < 0 ? 0 : (int)(last / BLOCK_BITS) + 1;
+    long[] cum = new long[blocks + 1];
+    long total = 0;
+    int filled = 0;
+    for (long idx = _bv.findFirst(0); idx >= 0; ) {
+      int b = (int)(idx / BLOCK_BITS);
+      Arrays.fill(cum, filled, b + 1, total); // empty blocks before b
+      long left = b * BLOCK_BITS;
+      long right = Math.min(left + BLOCK_BITS, MAX_BITS) - 1;
+      total += _bv.countInRange(left, right);
+      cum[b + 1] = total;
+      filled = b + 2;
+      idx = b + 1 < blocks ? _bv.findFirst(right + 1) : -1;
+    }
+    _cum = cum;
+    _modCount = modCount;
+  }
+
+  /**
+   * Total number of non-zero bits.
+   * @return number of non-zero bits.
+   */
+  public long count() {
+    refresh();
+    return _cum[_cum.length - 1];
+  }
+
+  /**
+   * Number of non-zero bits in the closed interval <code>[0, idx]</code>.
+   *
+   * @param idx end position.
+   * @return rank of the position.
+   */
+  public long rank(long idx) {
+    refresh();
+    long b = idx / BLOCK_BITS;
+    if (b >= _cum.length - 1)
+      return _cum[_cum.length - 1];
+    long left = b * BLOCK_BITS;
+    return _cum[(int)b] + _bv.countInRange(left, idx);
+  }
+
+  /**
+   * Position of the <code>n</code>-th non-zero bit, counting from 1, so that <code>rank(select(n)) == n</code>.
+   *
+   * @param n bit number.
+   * @return bit position or -1 if the vector has less than <code>n</code> non-zero bits.
+   */
+  public long select(long n) {
+    refresh();
+    if (n <= 0 || n > _cum[_cum.length - 1])
+      return -1;
+    // Last block with fewer than n bits before it
+    int lo = 0, hi = _cum.length - 2;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (_cum[mid] < n)
+        lo = mid;
+      else
+        hi = mid - 1;
+    }
+    long k = n - _cum[lo];
+    // Lowest position within the block with k bits up to it
+    long left = lo * BLOCK_BITS;
+    long from = left, to = Math.min(left + BLOCK_BITS, MAX_BITS) - 1;
+    while (from < to) {
+      long mid = (from + to) >>> 1;
+      if (_bv.countInRange(left, mid) >= k)
+        to = mid;
+      else
+        from = mid + 1;
+    }
+    return from;
+  }
+
+  private void refresh() {
+    if (!isValid())
+      rebuild();
+  }
+}
@@ -0,0 +1,363 @@
+package io.bitmagic;
+
+import io.bitmagic.core.BVIterator;
+import io.bitmagic.core.BitVectorStat;
+import io.bitmagic.core.OpCode;
+import io.bitmagic.core.OptMode;
+import io.bitmagic.core.Strategy;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Bit vector over the 64-bit index space <code>[0, Long.MAX_VALUE]</code>, partitioned into ranges of
+ * <code>2^shardBits</code> bits, each stored in its own <code>BitVector</code>.
+ * <p>
+ * Shards are created by the first update that sets a bit in their range, untouched ranges take no memory.
+ * Counts, logical operations and optimization process the shards concurrently in a fork-join pool.
+ * <p>
+ * Not thread-safe, the shards must not be accessed concurrently from outside.
+ */
+public final class ShardedBitVector implements AutoCloseable {
+  public static final int DEFAULT_SHARD_BITS = 31;
+  // BitVector positions are below 2^32 - 1
+  public static final int MAX_SHARD_BITS = 31;
+
+  // Sums f over the items, splitting the list between the pool threads
+  private static final class Sum<T> extends RecursiveTask<Long> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<T> _items;
+    private final ToLongFunction<T> _f;
+
+    Sum(List<T> items, ToLongFunction<T> f) {
+      _items = items;
+      _f = f;
+    }
+
+    @Override
+    protected Long compute() {
+      if (_items.size() == 1)
+        return _f.applyAsLong(_items.get(0));
+      int mid = _items.size() / 2;
+      Sum<T> lo = new Sum<>(_items.subList(0, mid), _f);
+      lo.fork();
+      long hi = new Sum<>(_items.subList(mid, _items.size()), _f).compute();
+      return lo.join() + hi;
+    }
+  }
+
+  private final Strategy _strategy;
+  private final int _shardBits;
+  private final long _shardMask;
+  private final ForkJoinPool _pool;
+  private final NavigableMap<Long, BitVector> _shards = new TreeMap<>();
+
+  /**
+   * Creates a vector with <code>BM_BIT</code> shards of <code>2^31</code> bits using the common pool.
+   */
+  public ShardedBitVector() {
+    this(Strategy.BM_BIT, DEFAULT_SHARD_BITS, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param stg strategy of the shards.
+   * @param shardBits log2 of the shard size, at most <code>MAX_SHARD_BITS</code>.
+   * @param pool fork-join pool for the parallel operations.
+   */
+  public ShardedBitVector(Strategy stg, int shardBits, ForkJoinPool pool) {
+    if (shardBits < 16 || shardBits > MAX_SHARD_BITS)
+      throw new IllegalArgumentException("Shard bits must be in [16, " + MAX_SHARD_BITS + "]");
+    _strategy = stg;
+    _shardBits = shardBits;
+    _shardMask = (1L << shardBits) - 1;
+    _pool = pool;
+  }
+
+  public int getShardBits() { return _shardBits; }
+
+  /**
+   * Number of allocated shards.
+   * @return shard count.
+   */
+  public int getShardCount() { return _shards.size(); }
+
+  private static void check(long idx) {
+    if (idx < 0)
+      throw new IndexOutOfBoundsException("Negative bit position " + idx);
+  }
+
+  private long base(long shard) { return shard << _shardBits; }
+
+  private BitVector shard(long idx) {
+    return _shards.get(idx >>> _shardBits);
+  }
+
+  private BitVector shardForUpdate(long shard) {
+    BitVector bv = _shards.get(shard);
+    if (bv == null) {
+      bv = new BitVector(_strategy);
+      _shards.put(shard, bv);
+    }
+    return bv;
+  }
+
+  private <T> long sum(List<T> items, ToLongFunction<T> f) {
+    if (items.isEmpty())
+      return 0;
+    if (items.size() == 1 || _pool.getParallelism() < 2)
+      return items.stream().mapToLong(f).sum();
+    return _pool.invoke(new Sum<>(items, f));
+  }
+
+  public void set(long idx, boolean v) {
+    check(idx);
+    BitVector bv = v ? shardForUpdate(idx >>> _shardBits) : shard(idx);
+    if (bv != null)
+      bv.set(idx & _shardMask, v);
+  }
+
+  public void set(long idx) { set(idx, true); }
+
+  public void flip(long idx) {
+    check(idx);
+    shardForUpdate(idx >>> _shardBits).flip(idx & _shardMask);
+  }
+
+  public boolean get(long idx) {
+    check(idx);
+    BitVector bv = shard(idx);
+    return bv != null && bv.get(idx & _shardMask);
+  }
+
+  /**
+   * Sets bits in the closed range <code>[left, right]</code>.
+   * <p>
+   * Setting to 1 allocates a shard for every <code>2^shardBits</code> bits of the range, so a range spanning
+   * the whole index space creates <code>2^(63 - shardBits)</code> shards. Clearing only visits the allocated
+   * shards and is cheap for any range.
+   */
+  public void setRange(long left, long right, boolean v) {
+    check(left);
+    if (left > right)
+      return;
+    if (!v) {
+      for (Map.Entry<Long, BitVector> e : _shards.subMap(left >>> _shardBits, true, right >>> _shardBits, true)
+          .entrySet())
+        e.getValue().setRange(Math.max(left, base(e.getKey())) & _shardMask,
+            Math.min(right, base(e.getKey()) + _shardMask) & _shardMask, false);
+      return;
+    }
+    for (long s = left >>> _shardBits, last = right >>> _shardBits; s <= last; s++) {
+      long from = Math.max(left, base(s)) & _shardMask;
+      long to = Math.min(right, base(s) + _shardMask) & _shardMask;
+      shardForUpdate(s).setRange(from, to, true);
+    }
+  }
+
+  /**
+   * Number of non-zero bits, counted concurrently per shard.
+   * @return number of non-zero bits.
+   */
+  public long count() {
+    return sum(new ArrayList<>(_shards.values()), BitVector::count);
+  }
+
+  /**
+   * Number of non-zero bits in the closed range <code>[left, right]</code>, counted concurrently per shard.
+   */
+  public long countInRange(long left, long right) {
+    check(left);
+    if (left > right)
+      return 0;
+    List<Map.Entry<Long, BitVector>> shards =
+        new ArrayList<>(_shards.subMap(left >>> _shardBits, true, right >>> _shardBits, true).entrySet());
+    return sum(shards, e -> {
+      long s = e.getKey();
+      long from = Math.max(left, base(s)) & _shardMask, to = Math.min(right, base(s) + _shardMask) & _shardMask;
+      return from == 0 && to == _shardMask ? e.getValue().count() : e.getValue().countInRange(from, to);
+    });
+  }
+
+  public boolean nonEmpty() {
+    for (BitVector bv : _shards.values())
+      if (bv.nonEmpty())
+        return true;
+    return false;
+  }
+
+  public boolean isEmpty() { return !nonEmpty(); }
+
+  /**
+   * Looks for the first non-zero bit from the given position.
+   * @return bit position or -1 if not found.
+   */
+  public long findFirst(long start) {
+    check(start);
+    for (Map.Entry<Long, BitVector> e : _shards.tailMap(start >>> _shardBits, true).entrySet()) {
+      long base = base(e.getKey());
+      long p = e.getValue().findFirst(base >= start ? 0 : start & _shardMask);
+      if (p >= 0)
+        return base + p;
+    }
+    return -1;
+  }
+
+  public long findFirst() { return findFirst(0); }
+
+  /**
+   * Looks for the last non-zero bit.
+   * @return bit position or -1 if not found.
+   */
+  public long findReverse() {
+    for (Map.Entry<Long, BitVector> e : _shards.descendingMap().entrySet()) {
+      long p = e.getValue().findReverse();
+      if (p >= 0)
+        return base(e.getKey()) + p;
+    }
+    return -1;
+  }
+
+  /**
+   * Iterates non-zero bit positions in ascending order.
+   */
+  public PrimitiveIterator.OfLong iterator() {
+    Iterator<Map.Entry<Long, BitVector>> shards = new ArrayList<>(_shards.entrySet()).iterator();
+    return new PrimitiveIterator.OfLong() {
+      private BVIterator _it;
+      private long _base;
+
+      @Override
+      public boolean hasNext() {
+        while (_it == null || !_it.hasNext()) {
+          if (_it != null)
+            _it.close();
+          _it = null;
+          if (!shards.hasNext())
+            return false;
+          Map.Entry<Long, BitVector> e = shards.next();
+          _base = base(e.getKey());
+          _it = e.getValue().iterator();
+        }
+        return true;
+      }
+
+      @Override
+      public long nextLong() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        return _base + _it.nextLong();
+      }
+    };
+  }
+
+  public void forEachBit(LongConsumer action) {
+    for (Map.Entry<Long, BitVector> e : _shards.entrySet()) {
+      long base = base(e.getKey());
+      e.getValue().forEachBit(p -> action.accept(base + p));
+    }
+  }
+
+  /**
+   * Performs a logical operation with another sharded vector, shard pairs are combined concurrently.
+   * @param other vector with the same shard size.
+   * @param code operation.
+   */
+  public void op(ShardedBitVector other, OpCode code) {
+    if (other._shardBits != _shardBits)
+      throw new IllegalArgumentException("Shard sizes differ");
+    if (code == OpCode.AND) {
+      // shards without a counterpart become empty
+      for (Iterator<Map.Entry<Long, BitVector>> it = _shards.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<Long, BitVector> e = it.next();
+        if (!other._shards.containsKey(e.getKey())) {
+          e.getValue().close();
+          it.remove();
+        }
+      }
+    }
+    List<BitVector[]> pairs = new ArrayList<>();
+    for (Map.Entry<Long, BitVector> e : other._shards.entrySet()) {
+      boolean grows = code == OpCode.OR || code == OpCode.XOR;
+      BitVector mine = grows ? shardForUpdate(e.getKey()) : _shards.get(e.getKey());
+      if (mine != null)
+        pairs.add(new BitVector[] { mine, e.getValue() });
+    }
+    sum(pairs, p -> {
+      p[0].op(p[1], code);
+      return 0;
+    });
+  }
+
+  public void and(ShardedBitVector other) { op(other, OpCode.AND); }
+  public void or(ShardedBitVector other) { op(other, OpCode.OR); }
+  public void sub(ShardedBitVector other) { op(other, OpCode.SUB); }
+  public void xor(ShardedBitVector other) { op(other, OpCode.XOR); }
+
+  private static BitVectorStat add(BitVectorStat a, BitVectorStat b) {
+    return new BitVectorStat(a.getBitBlocks() + b.getBitBlocks(), a.getGapBlocks() + b.getGapBlocks(),
+        a.getMaxSerializeMem() + b.getMaxSerializeMem(), a.getMemoryUsed() + b.getMemoryUsed());
+  }
+
+  /**
+   * Optimizes the shards concurrently and drops the empty ones.
+   * @param om OptMode value.
+   * @return combined statistics of the remaining shards.
+   */
+  public BitVectorStat optimize(OptMode om) {
+    List<Map.Entry<Long, BitVector>> shards = new ArrayList<>(_shards.entrySet());
+    BitVectorStat[] stats = new BitVectorStat[shards.size()];
+    sum(IntStream.range(0, stats.length).boxed().collect(Collectors.toList()), i -> {
+      stats[i] = shards.get(i).getValue().optimize(om);
+      return 0;
+    });
+    BitVectorStat total = new BitVectorStat(0, 0, 0, 0);
+    for (int i = 0; i < stats.length; i++) {
+      BitVector bv = shards.get(i).getValue();
+      if (bv.isEmpty()) {
+        bv.close();
+        _shards.remove(shards.get(i).getKey());
+      }
+      else
+        total = add(total, stats[i]);
+    }
+    return total;
+  }
+
+  /**
+   * Combined statistics of the shards.
+   * @return <code>BitVectorStat</code> object.
+   */
+  public BitVectorStat calcStat() {
+    BitVectorStat total = new BitVectorStat(0, 0, 0, 0);
+    for (BitVector bv : _shards.values())
+      total = add(total, bv.calcStat());
+    return total;
+  }
+
+  /**
+   * Frees all shards, the vector stays usable.
+   */
+  public void clear() {
+    for (BitVector bv : _shards.values())
+      bv.close();
+    _shards.clear();
+  }
+
+  @Override
+  public void close() {
+    clear();
+  }
+}
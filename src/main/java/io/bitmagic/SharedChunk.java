@@ -0,0 +1,36 @@
+package io.bitmagic;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference-counted part of a versioned bit vector covering <code>2^CHUNK_SHIFT</code> bits.
+ * The bit vector keeps global positions, only bits within the chunk range are set.
+ */
+final class SharedChunk {
+  static final int CHUNK_SHIFT = 24;
+  static final long CHUNK_BITS = 1L << CHUNK_SHIFT;
+  static final int CHUNKS = (int)((BitVector.MAX_BITS >>> CHUNK_SHIFT) + 1);
+
+  final BitVector bv;
+  private final AtomicInteger _refs = new AtomicInteger(1);
+
+  SharedChunk(BitVector bv) {
+    this.bv = bv;
+  }
+
+  static int index(long idx) { return (int)(idx >>> CHUNK_SHIFT); }
+  static long left(int chunk) { return (long)chunk << CHUNK_SHIFT; }
+  static long right(int chunk) { return Math.min(left(chunk) + CHUNK_BITS, BitVector.MAX_BITS) - 1; }
+
+  SharedChunk retain() {
+    _refs.incrementAndGet();
+    return this;
+  }
+
+  boolean isShared() { return _refs.get() > 1; }
+
+  void release() {
+    if (_refs.decrementAndGet() == 0)
+      bv.close();
+  }
+}
@@ -0,0 +1,292 @@
+package io.bitmagic;
+
+import io.bitmagic.core.Strategy;
+
+/**
+ * Vector of signed integers stored bit-transposed: bit <code>i</code> of the value at position <code>idx</code>
+ * is bit <code>idx</code> of plane <code>i</code>. A separate vector marks the positions holding a value.
+ * <p>
+ * Comparisons with a constant are computed with plane-wise AND/OR/SUB over the whole vector and return
+ * the matching positions as a <code>BitVector</code>, so range filters run at bitmap speed.
+ * Values are stored with the sign bit flipped, so that unsigned plane order matches signed value order.
+ * <p>
+ * Not thread-safe.
+ */
+public final class SparseIntVector implements AutoCloseable {
+  // Positions per native call during import
+  private static final int IMPORT_BATCH = 4096;
+
+  private final int _bits;
+  private final long _min;
+  private final long _max;
+  private final Strategy _strategy;
+  // Planes are created on first non-zero bit
+  private final BitVector[] _planes;
+  private final BitVector _notNull;
+
+  /**
+   * Creates a vector of 64-bit values.
+   */
+  public SparseIntVector() {
+    this(64, Strategy.BM_GAP);
+  }
+
+  /**
+   * General constructor.
+   * @param bits value width, 1 to 64. Values must fit into a signed integer of this width.
+   * @param stg memory management strategy of the planes.
+   */
+  public SparseIntVector(int bits, Strategy stg) {
+    if (bits < 1 || bits > 64)
+      throw new IllegalArgumentException("Value width must be between 1 and 64: " + bits);
+    _bits = bits;
+    _min = bits == 64 ? Long.MIN_VALUE : -(1L << (bits - 1));
+    _max = bits == 64 ? Long.MAX_VALUE : (1L << (bits - 1)) - 1;
+    _strategy = stg;
+    _planes = new BitVector[bits];
+    _notNull = new BitVector(stg);
+  }
+
+  public int getBits() { return _bits; }
+
+  /**
+   * Stores a value.
+   *
+   * @param idx position.
+   * @param value value within the range of the value width.
+   */
+  public void set(long idx, long value) {
+    long enc = encode(value);
+    for (int i = 0; i < _bits; i++) {
+      if ((enc >>> i & 1) != 0)
+        plane(i).set(idx, true);
+      else if (_planes[i] != null)
+        _planes[i].set(idx, false);
+    }
+    _notNull.set(idx, true);
+  }
+
+  /**
+   * Removes the value at the position.
+   *
+   * @param idx position.
+   */
+  public void clear(long idx) {
+    for (BitVector p : _planes) {
+      if (p != null)
+        p.set(idx, false);
+    }
+    _notNull.set(idx, false);
+  }
+
+  /**
+   * Checks if the position holds a value.
+   *
+   * @param idx position.
+   * @return true if a value is stored.
+   */
+  public boolean contains(long idx) {
+    return _notNull.get(idx);
+  }
+
+  /**
+   * Gets a value.
+   *
+   * @param idx position.
+   * @return stored value, 0 if there is none.
+   */
+  public long get(long idx) {
+    if (!_notNull.get(idx))
+      return 0;
+    long enc = 0;
+    for (int i = 0; i < _bits; i++) {
+      if (_planes[i] != null && _planes[i].get(idx))
+        enc |= 1L << i;
+    }
+    return decode(enc);
+  }
+
+  /**
+   * Number of stored values.
+   * @return value count.
+   */
+  public long count() {
+    return _notNull.count();
+  }
+
+  /**
+   * Stores <code>values[i]</code> at position <code>start + i</code>, replacing previous values.
+   * Each plane is updated in batches, not bit by bit.
+   *
+   * @param start position of the first value.
+   * @param values values within the range of the value width.
+   */
+  public void importFrom(long start, long[] values) {
+    if (values.length == 0)
+      return;
+    long end = start + values.length - 1;
+    for (BitVector p : _planes) {
+      if (p != null)
+        p.setRange(start, end, false);
+    }
+    int[][] batch = new int[_bits][IMPORT_BATCH];
+    int[] len = new int[_bits];
+    for (int j = 0; j < values.length; j++) {
+      long enc = encode(values[j]);
+      int pos = (int)(start + j);
+      for (int i = 0; enc != 0; i++, enc >>>= 1) {
+        if ((enc & 1) == 0)
+          continue;
+        batch[i][len[i]++] = pos;
+        if (len[i] == IMPORT_BATCH) {
+          plane(i).setBits(batch[i], 0, IMPORT_BATCH);
+          len[i] = 0;
+        }
+      }
+    }
+    for (int i = 0; i < _bits; i++) {
+      if (len[i] > 0)
+        plane(i).setBits(batch[i], 0, len[i]);
+    }
+    _notNull.setRange(start, end, true);
+  }
+
+  /**
+   * Positions with values equal to <code>v</code>.
+   * @param v value.
+   * @return new <code>BitVector</code> with the matching positions.
+   */
+  public BitVector equal(long v) {
+    if (v < _min || v > _max)
+      return new BitVector();
+    return compare(v, false)[1];
+  }
+
+  /**
+   * Positions with values less than <code>v</code>.
+   * @param v value.
+   * @return new <code>BitVector</code> with the matching positions.
+   */
+  public BitVector lessThan(long v) {
+    if (v <= _min)
+      return new BitVector();
+    if (v > _max)
+      return _notNull.copy();
+    BitVector[] r = compare(v, true);
+    r[1].close();
+    return r[0];
+  }
+
+  /**
+   * Positions with values less than or equal to <code>v</code>.
+   * @param v value.
+   * @return new <code>BitVector</code> with the matching positions.
+   */
+  public BitVector lessOrEqual(long v) {
+    if (v >= _max)
+      return _notNull.copy();
+    return lessThan(v + 1);
+  }
+
+  /**
+   * Positions with values greater than <code>v</code>.
+   * @param v value.
+   * @return new <code>BitVector</code> with the matching positions.
+   */
+  public BitVector greaterThan(long v) {
+    BitVector r = _notNull.copy();
+    try (BitVector le = lessOrEqual(v)) {
+      r.sub(le);
+    }
+    return r;
+  }
+
+  /**
+   * Positions with values greater than or equal to <code>v</code>.
+   * @param v value.
+   * @return new <code>BitVector</code> with the matching positions.
+   */
+  public BitVector greaterOrEqual(long v) {
+    BitVector r = _notNull.copy();
+    try (BitVector lt = lessThan(v)) {
+      r.sub(lt);
+    }
+    return r;
+  }
+
+  /**
+   * Positions with values in the closed interval <code>[lo, hi]</code>.
+   * @param lo lower bound.
+   * @param hi upper bound.
+   * @return new <code>BitVector</code> with the matching positions.
+   */
+  public BitVector between(long lo, long hi) {
+    if (lo > hi)
+      return new BitVector();
+    BitVector r = lessOrEqual(hi);
+    try (BitVector lt = lessThan(lo)) {
+      r.sub(lt);
+    }
+    return r;
+  }
+
+  @Override
+  public void close() {
+    for (BitVector p : _planes) {
+      if (p != null)
+        p.close();
+    }
+    _notNull.close();
+  }
+
+  /**
+   * Bit-sliced comparison with a constant in the value range, from the most significant plane down.
+   * @return <code>{less than v, equal to v}</code>, the first one is empty unless requested.
+   */
+  private BitVector[] compare(long v, boolean withLess) {
+    long enc = encode(v);
+    BitVector lt = new BitVector();
+    BitVector eq = _notNull.copy();
+    try (BitVector tmp = new BitVector()) {
+      for (int i = _bits - 1; i >= 0 && eq.nonEmpty(); i--) {
+        BitVector p = _planes[i];
+        if ((enc >>> i & 1) != 0) {
+          // equal so far with 0 in this plane is less than v
+          if (withLess) {
+            tmp.clear(false);
+            tmp.or(eq);
+            if (p != null)
+              tmp.sub(p);
+            lt.or(tmp);
+          }
+          if (p != null)
+            eq.and(p);
+          else
+            eq.clear(false);
+        }
+        else if (p != null)
+          eq.sub(p);
+      }
+    }
+    return new BitVector[] { lt, eq };
+  }
+
+  private BitVector plane(int i) {
+    if (_planes[i] == null)
+      _planes[i] = new BitVector(_strategy);
+    return _planes[i];
+  }
+
+  private long encode(long value) {
+    if (value < _min || value > _max)
+      throw new IllegalArgumentException("Value " + value + " does not fit into " + _bits + " bits");
+    long enc = value ^ (1L << (_bits - 1));
+    return _bits == 64 ? enc : enc & ((1L << _bits) - 1);
+  }
+
+  private long decode(long enc) {
+    long value = enc ^ (1L << (_bits - 1));
+    // sign-extend
+    return _bits == 64 ? value : value << (64 - _bits) >> (64 - _bits);
+  }
+}
@@ -0,0 +1,213 @@
+package io.bitmagic;
+
+import io.bitmagic.core.OpCode;
+import io.bitmagic.core.Strategy;
+
+import static io.bitmagic.SharedChunk.CHUNKS;
+
+/**
+ * Bit vector with cheap immutable snapshots for concurrent readers.
+ * <p>
+ * The bit space is split into chunks of 256 blocks, each held in its own native vector. A snapshot shares all chunks
+ * with the writer and costs O(number of chunks), independent of the vector size. The writer copies a chunk only
+ * the first time it modifies it after a snapshot, so the copying cost is proportional to the changed chunks.
+ * <p>
+ * The methods of this class are synchronized. It is intended for a single writer and many readers, which call
+ * {@link #snapshot()} and read the returned version without any locking.
+ */
+public final class VersionedBitVector implements AutoCloseable {
+  private final Strategy _strategy;
+  private final SharedChunk[] _chunks = new SharedChunk[CHUNKS];
+  // Version returned by snapshot() until the next modification
+  private ImmutableBitVector _current;
+
+  /**
+   * Creates an empty vector with the default strategy.
+   */
+  public VersionedBitVector() {
+    this(Strategy.BM_BIT);
+  }
+
+  /**
+   * Creates an empty vector.
+   * @param stg memory management strategy.
+   */
+  public VersionedBitVector(Strategy stg) {
+    _strategy = stg;
+  }
+
+  /**
+   * Creates a vector with the content of <code>bv</code>.
+   * @param stg memory management strategy.
+   * @param bv initial content, not modified.
+   */
+  public VersionedBitVector(Strategy stg, BitVector bv) {
+    this(stg);
+    or(bv);
+  }
+
+  /**
+   * Returns the current version. Unless the vector was modified since the previous call, the same version is shared.
+   * The caller must close the returned object.
+   *
+   * @return <code>ImmutableBitVector</code> object.
+   */
+  public synchronized ImmutableBitVector snapshot() {
+    if (_current == null) {
+      SharedChunk[] chunks = new SharedChunk[CHUNKS];
+      for (int i = 0; i < CHUNKS; i++) {
+        if (_chunks[i] != null)
+          chunks[i] = _chunks[i].retain();
+      }
+      _current = new ImmutableBitVector(chunks);
+    }
+    return _current.retain();
+  }
+
+  /**
+   * Sets a bit at the specified position.
+   *
+   * @param idx bit position.
+   * @param v bit value.
+   */
+  public synchronized void set(long idx, boolean v) {
+    int i = SharedChunk.index(idx);
+    if (!v && _chunks[i] == null)
+      return;
+    writable(i).set(idx, v);
+  }
+
+  /**
+   * Gets the bit value at specified position in the current state.
+   *
+   * @param idx bit position.
+   * @return bit value.
+   */
+  public synchronized boolean get(long idx) {
+    SharedChunk c = _chunks[SharedChunk.index(idx)];
+    return c != null && c.bv.get(idx);
+  }
+
+  /**
+   * Flips a bit.
+   *
+   * @param idx bit position.
+   */
+  public synchronized void flip(long idx) {
+    writable(SharedChunk.index(idx)).flip(idx);
+  }
+
+  /**
+   * Sets bits in the closed range <code>[left, right]</code>.
+   *
+   * @param left start position.
+   * @param right end position.
+   * @param v bit value.
+   */
+  public synchronized void setRange(long left, long right, boolean v) {
+    for (int i = SharedChunk.index(left); i <= SharedChunk.index(right); i++) {
+      if (!v && _chunks[i] == null)
+        continue;
+      writable(i).setRange(Math.max(left, SharedChunk.left(i)), Math.min(right, SharedChunk.right(i)), v);
+    }
+  }
+
+  /**
+   * Sets all bits in the vector to 0.
+   */
+  public synchronized void clear() {
+    for (int i = 0; i < CHUNKS; i++)
+      drop(i);
+  }
+
+  /**
+   * Performs a logical operation with the specified bit vector. Only the chunks affected by the operation are copied.
+   *
+   * @param bv BitVector object.
+   * @param code <code>OpCode</code> operation.
+   */
+  public synchronized void op(BitVector bv, OpCode code) {
+    BitVector part = null;
+    try {
+      for (int i = 0; i < CHUNKS; i++) {
+        long left = SharedChunk.left(i);
+        long right = SharedChunk.right(i);
+        long first = bv.findFirst(left);
+        boolean argEmpty = first < 0 || first > right;
+        switch (code) {
+          case AND:
+            if (_chunks[i] == null)
+              break;
+            if (argEmpty)
+              drop(i);
+            else
+              writable(i).and(bv); // the chunk limits the result to its range
+            break;
+          case SUB:
+            if (_chunks[i] != null && !argEmpty)
+              writable(i).sub(bv);
+            break;
+          case OR:
+          case XOR:
+            if (argEmpty)
+              break;
+            if (part == null)
+              part = new BitVector();
+            part.clear(false);
+            part.setRange(left, right, true);
+            part.and(bv);
+            writable(i).op(part, code);
+            break;
+        }
+        if (first < 0 && code != OpCode.AND)
+          break;
+      }
+    }
+    finally {
+      if (part != null)
+        part.close();
+    }
+  }
+
+  public void and(BitVector bv) { op(bv, OpCode.AND); }
+  public void or(BitVector bv) { op(bv, OpCode.OR); }
+  public void sub(BitVector bv) { op(bv, OpCode.SUB); }
+  public void xor(BitVector bv) { op(bv, OpCode.XOR); }
+
+  /**
+   * Releases the writer's references. Snapshots taken earlier stay valid until closed.
+   */
+  @Override
+  public synchronized void close() {
+    clear();
+  }
+
+  private void modified() {
+    if (_current != null) {
+      _current.close();
+      _current = null;
+    }
+  }
+
+  // Chunk vector safe to modify: created if missing, copied if shared with a snapshot
+  private BitVector writable(int i) {
+    modified();
+    SharedChunk c = _chunks[i];
+    if (c == null)
+      _chunks[i] = c = new SharedChunk(new BitVector(_strategy));
+    else if (c.isShared()) {
+      SharedChunk copy = new SharedChunk(c.bv.copy());
+      c.release();
+      _chunks[i] = c = copy;
+    }
+    return c.bv;
+  }
+
+  private void drop(int i) {
+    if (_chunks[i] != null) {
+      modified();
+      _chunks[i].release();
+      _chunks[i] = null;
+    }
+  }
+}
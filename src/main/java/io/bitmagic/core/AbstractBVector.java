@@ -1,87 +1,63 @@
 package io.bitmagic.core;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-
-public abstract class AbstractBVector extends BVector0 implements AutoCloseable {
-  private static String CPUID_LIB_NAME = "bmcpuidj";
-  private static String LIB_NAME = "bmjni";
+public abstract class AbstractBVector extends BVectorEngine implements AutoCloseable {
   public static long MAX_BITS = 0xFFFFFFFFL;
-
-  private static InputStream getResourceStream(String libName) {
-    InputStream is = AbstractBVector.class.getResourceAsStream("/native/" + libName);
-    if (is == null)
-      is = AbstractBVector.class.getResourceAsStream("/" + libName);
-    if (is == null)
-      throw new RuntimeException("Native library " + libName + " not found in classpath");
-    return is;
+  // Number of bits in a BitMagic block
+  public static final long BLOCK_BITS = 65536L;
+
+  private final NativeHandle _handle;
+  // Read by reachable()
+  private volatile int _fence;
+
+  /**
+   * Native pointer.
+   * @throws IllegalStateException if the vector has been closed.
+   */
+  protected long getInternal() { return _handle.ptr(); }
+
+  /**
+   * Keeps this vector reachable up to the call. Methods passing a pointer from {@link #getInternal()} to more
+   * than one native call must end with it, otherwise the JIT may consider the vector unreachable after the
+   * pointer was read and the cleaner may free the structure in the middle of the method. A volatile read of
+   * this object stands in for <code>Reference.reachabilityFence</code>, which Java 8 does not have.
+   */
+  protected final void reachable() {
+    if (_fence != 0)
+      throw new AssertionError();
   }
 
-  static {
-    // Get the library name based on the current instruction set
-    String osCpuidLibName = System.mapLibraryName(CPUID_LIB_NAME);
-    String libName = LIB_NAME;
-    try(InputStream libIs = getResourceStream(osCpuidLibName)) {
-      Path libTmp = Files.createTempFile(null, null);
-      Files.copy(libIs, libTmp, StandardCopyOption.REPLACE_EXISTING);
-      System.load(libTmp.toString());
-      libName = SimdUtil0.getLibName0();
-    }
-    catch (IOException e) {
-      throw new RuntimeException("CPUID library initialization problem.", e);
-    }
-    System.out.println("Current library name: " + libName);
-    String osLibName = System.mapLibraryName(libName);
-    try(InputStream libIs = getResourceStream(osLibName)) {
-      Path libTmp = Files.createTempFile(null, null);
-      Files.copy(libIs, libTmp, StandardCopyOption.REPLACE_EXISTING);
-      System.load(libTmp.toString());
-      init0(0);
-    }
-    catch (IOException e) {
-      throw new RuntimeException("Library initialization problem.", e);
-    }
-  }
-
-  private long _bv = 0; // finalization runs in case of any exception
-
-  protected long getInternal() { return _bv; }
-
   public AbstractBVector(Strategy stg, long size, long... bits) {
-    _bv = create0(stg.ordinal(), size);
+    long bv = create0(stg.ordinal(), size);
+    _handle = new NativeHandle(this, NativeHandle.Kind.VECTOR, bv);
 
     for(long b: bits) {
-      set0(_bv, b, true);
+      set0(bv, b, true);
     }
   }
 
   public AbstractBVector(byte[] buf) {
-    _bv = create0(0, MAX_BITS);
-    deserialize0(_bv, buf);
+    long bv = create0(0, MAX_BITS);
+    _handle = new NativeHandle(this, NativeHandle.Kind.VECTOR, bv);
+    deserialize0(bv, buf);
   }
 
   public AbstractBVector(long bv) {
-    _bv = bv;
+    _handle = new NativeHandle(this, NativeHandle.Kind.VECTOR, bv);
   }
 
   public static String getVersion() { return version0(); }
   public static String getCopyright() { return copyright0(); }
 
+  /**
+   * @return true once {@link #close()} freed the native structure.
+   */
+  public boolean isClosed() { return _handle.isReleased(); }
 
+  /**
+   * Frees the native structure. The vector can not be used afterwards.
+   */
   @Override
   public void close() {
-    if (_bv != 0)
-      synchronized (this) {
-        dispose0(_bv);
-        _bv = 0;
-      }
-  }
-
-  @Override
-  protected void finalize() {
-    close();
+    _handle.release();
   }
 }
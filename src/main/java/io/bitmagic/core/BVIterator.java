@@ -1,38 +1,87 @@
 package io.bitmagic.core;
 
-import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 
 /**
  * Iterates through non-zero bits. Non-reentrant, non-reuseable.
+ * The native iterator is freed by {@link #close()} or once the iterator becomes unreachable.
  */
-public final class BVIterator extends BVIterator0 implements Iterator<Long> {
-  private long _bvi = 0;
+public final class BVIterator extends BVIteratorEngine implements PrimitiveIterator.OfLong, AutoCloseable {
+  private final NativeHandle _handle;
+  // Keeps the iterated vector alive while the iterator is in use
+  private final AbstractBVector _owner;
   private boolean _nonEmpty;
   private boolean _nextCalled = false;
+  // Read after the native calls, see AbstractBVector.reachable()
+  private volatile int _fence;
 
   public BVIterator(long bvPtr) {
-    _bvi = create0(bvPtr);
-    _nonEmpty = isValid0(_bvi);
+    this(null, bvPtr);
+  }
+
+  public BVIterator(AbstractBVector bv) {
+    this(bv, bv.getInternal());
+  }
+
+  private BVIterator(AbstractBVector owner, long bvPtr) {
+    _owner = owner;
+    long bvi = create0(bvPtr);
+    _handle = new NativeHandle(this, NativeHandle.Kind.ITERATOR, bvi);
+    _nonEmpty = isValid0(bvi);
   }
 
   @Override
   public boolean hasNext() {
     if (_nextCalled) {
       // Advance to next bit
-      _nonEmpty = next0(_bvi);
+      _nonEmpty = next0(_handle.ptr());
       _nextCalled = false;
+      reachable();
     }
     return _nonEmpty;
   }
 
   @Override
-  public Long next() {
+  public long nextLong() {
+    if (!hasNext())
+      throw new NoSuchElementException();
     _nextCalled = true;
-    return get0(_bvi);
+    long idx = get0(_handle.ptr());
+    reachable();
+    return idx;
+  }
+
+  /**
+   * Decodes the next non-zero bit positions into the buffer without boxing.
+   *
+   * @param out buffer to fill.
+   * @return number of positions written, less than <code>out.length</code> only when the iterator is exhausted.
+   */
+  public int decode(long[] out) {
+    int n = 0;
+    while (n < out.length && hasNext()) {
+      _nextCalled = true;
+      out[n++] = get0(_handle.ptr());
+    }
+    reachable();
+    return n;
+  }
+
+  // Keeps this iterator, and with it the vector, reachable up to the call so that the cleaner can not free
+  // the native iterator while a pointer read from the handle is in use
+  private void reachable() {
+    if (_fence != 0)
+      throw new AssertionError();
+    if (_owner != null)
+      _owner.reachable();
   }
 
+  /**
+   * Frees the native iterator. The iterator can not be used afterwards.
+   */
   @Override
-  protected void finalize() {
-    if (_bvi != 0) dispose0(_bvi);
+  public void close() {
+    _handle.release();
   }
 }
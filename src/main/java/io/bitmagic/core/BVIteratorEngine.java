@@ -0,0 +1,31 @@
+package io.bitmagic.core;
+
+/**
+ * Routes the iterator calls to the JNI library or to {@link JavaEngine}, see {@link BVectorEngine}.
+ */
+abstract class BVIteratorEngine {
+  private static final boolean NATIVE = BVectorEngine.NATIVE;
+
+  public static long create0(long bvPtr) {
+    return NATIVE ? BVIterator0.create0(bvPtr) : JavaEngine.iteratorCreate0(bvPtr);
+  }
+
+  public static void dispose0(long ptr) {
+    if (NATIVE)
+      BVIterator0.dispose0(ptr);
+    else
+      JavaEngine.iteratorDispose0(ptr);
+  }
+
+  public static boolean isValid0(long ptr) {
+    return NATIVE ? BVIterator0.isValid0(ptr) : JavaEngine.iteratorIsValid0(ptr);
+  }
+
+  public static long get0(long ptr) {
+    return NATIVE ? BVIterator0.get0(ptr) : JavaEngine.iteratorGet0(ptr);
+  }
+
+  public static boolean next0(long ptr) {
+    return NATIVE ? BVIterator0.next0(ptr) : JavaEngine.iteratorNext0(ptr);
+  }
+}
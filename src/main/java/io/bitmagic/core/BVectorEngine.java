@@ -0,0 +1,214 @@
+package io.bitmagic.core;
+
+/**
+ * Routes the vector calls to the JNI library or, when it is unavailable, to {@link JavaEngine}.
+ * The engine is fixed at class initialization, so the JIT folds the dispatch away.
+ */
+abstract class BVectorEngine {
+  static final boolean NATIVE = NativeLoader.init();
+
+  public static long create0(int strategy, long size) {
+    return NATIVE ? BVector0.create0(strategy, size) : JavaEngine.create0(strategy, size);
+  }
+
+  public static long copy0(long ptr) {
+    return NATIVE ? BVector0.copy0(ptr) : JavaEngine.copy0(ptr);
+  }
+
+  public static void dispose0(long ptr) {
+    if (NATIVE)
+      BVector0.dispose0(ptr);
+    else
+      JavaEngine.dispose0(ptr);
+  }
+
+  public static String version0() {
+    return NATIVE ? BVector0.version0() : JavaEngine.version0();
+  }
+
+  public static String copyright0() {
+    return NATIVE ? BVector0.copyright0() : JavaEngine.copyright0();
+  }
+
+  public static long getSize0(long ptr) {
+    return NATIVE ? BVector0.getSize0(ptr) : JavaEngine.getSize0(ptr);
+  }
+
+  public static void setSize0(long ptr, long size) {
+    if (NATIVE)
+      BVector0.setSize0(ptr, size);
+    else
+      JavaEngine.setSize0(ptr, size);
+  }
+
+  public static void set0(long ptr, long idx, boolean bit) {
+    if (NATIVE)
+      BVector0.set0(ptr, idx, bit);
+    else
+      JavaEngine.set0(ptr, idx, bit);
+  }
+
+  public static int inc0(long ptr, long idx) {
+    return NATIVE ? BVector0.inc0(ptr, idx) : JavaEngine.inc0(ptr, idx);
+  }
+
+  public static boolean setConditional0(long ptr, long idx, boolean bit, boolean condition) {
+    return NATIVE ? BVector0.setConditional0(ptr, idx, bit, condition) : JavaEngine.setConditional0(ptr, idx, bit, condition);
+  }
+
+  public static void flip0(long ptr, long idx) {
+    if (NATIVE)
+      BVector0.flip0(ptr, idx);
+    else
+      JavaEngine.flip0(ptr, idx);
+  }
+
+  public static void setAll0(long ptr) {
+    if (NATIVE)
+      BVector0.setAll0(ptr);
+    else
+      JavaEngine.setAll0(ptr);
+  }
+
+  public static void setRange0(long ptr, long left, long right, boolean bit) {
+    if (NATIVE)
+      BVector0.setRange0(ptr, left, right, bit);
+    else
+      JavaEngine.setRange0(ptr, left, right, bit);
+  }
+
+  public static void invert0(long ptr) {
+    if (NATIVE)
+      BVector0.invert0(ptr);
+    else
+      JavaEngine.invert0(ptr);
+  }
+
+  public static void clear0(long ptr, int freeMemFlag) {
+    if (NATIVE)
+      BVector0.clear0(ptr, freeMemFlag);
+    else
+      JavaEngine.clear0(ptr, freeMemFlag);
+  }
+
+  public static long extract0(long ptr, long start) {
+    return NATIVE ? BVector0.extract0(ptr, start) : JavaEngine.extract0(ptr, start);
+  }
+
+  public static boolean get0(long ptr, long idx) {
+    return NATIVE ? BVector0.get0(ptr, idx) : JavaEngine.get0(ptr, idx);
+  }
+
+  public static long count0(long ptr) {
+    return NATIVE ? BVector0.count0(ptr) : JavaEngine.count0(ptr);
+  }
+
+  public static long countInRange0(long ptr, long left, long right) {
+    return NATIVE ? BVector0.countInRange0(ptr, left, right) : JavaEngine.countInRange0(ptr, left, right);
+  }
+
+  public static boolean nonEmpty0(long ptr) {
+    return NATIVE ? BVector0.nonEmpty0(ptr) : JavaEngine.nonEmpty0(ptr);
+  }
+
+  public static long findFirst0(long ptr, long start) {
+    return NATIVE ? BVector0.findFirst0(ptr, start) : JavaEngine.findFirst0(ptr, start);
+  }
+
+  public static long findReverse0(long ptr) {
+    return NATIVE ? BVector0.findReverse0(ptr) : JavaEngine.findReverse0(ptr);
+  }
+
+  public static int compare0(long ptr1, long ptr2) {
+    return NATIVE ? BVector0.compare0(ptr1, ptr2) : JavaEngine.compare0(ptr1, ptr2);
+  }
+
+  public static BitVectorStat optimize0(long ptr, int optMode) {
+    return NATIVE ? BVector0.optimize0(ptr, optMode) : JavaEngine.optimize0(ptr, optMode);
+  }
+
+  public static BitVectorStat calcStat0(long ptr) {
+    return NATIVE ? BVector0.calcStat0(ptr) : JavaEngine.calcStat0(ptr);
+  }
+
+  public static void operation0(long dst, long src, int opCode) {
+    if (NATIVE)
+      BVector0.operation0(dst, src, opCode);
+    else
+      JavaEngine.operation0(dst, src, opCode);
+  }
+
+  public static void and0(long dst, long src) {
+    if (NATIVE)
+      BVector0.and0(dst, src);
+    else
+      JavaEngine.and0(dst, src);
+  }
+
+  public static void or0(long dst, long src) {
+    if (NATIVE)
+      BVector0.or0(dst, src);
+    else
+      JavaEngine.or0(dst, src);
+  }
+
+  public static void sub0(long dst, long src) {
+    if (NATIVE)
+      BVector0.sub0(dst, src);
+    else
+      JavaEngine.sub0(dst, src);
+  }
+
+  public static void xor0(long dst, long src) {
+    if (NATIVE)
+      BVector0.xor0(dst, src);
+    else
+      JavaEngine.xor0(dst, src);
+  }
+
+  public static void andArr0(long dst, int[] arr) {
+    if (NATIVE)
+      BVector0.andArr0(dst, arr);
+    else
+      JavaEngine.andArr0(dst, arr);
+  }
+
+  public static void andArrSorted0(long dst, int[] arr) {
+    if (NATIVE)
+      BVector0.andArrSorted0(dst, arr);
+    else
+      JavaEngine.andArrSorted0(dst, arr);
+  }
+
+  public static void orArr0(long dst, int[] arr) {
+    if (NATIVE)
+      BVector0.orArr0(dst, arr);
+    else
+      JavaEngine.orArr0(dst, arr);
+  }
+
+  public static void xorArr0(long dst, int[] arr) {
+    if (NATIVE)
+      BVector0.xorArr0(dst, arr);
+    else
+      JavaEngine.xorArr0(dst, arr);
+  }
+
+  public static void subArr0(long dst, int[] arr) {
+    if (NATIVE)
+      BVector0.subArr0(dst, arr);
+    else
+      JavaEngine.subArr0(dst, arr);
+  }
+
+  public static void deserialize0(long ptr, byte[] buf) {
+    if (NATIVE)
+      BVector0.deserialize0(ptr, buf);
+    else
+      JavaEngine.deserialize0(ptr, buf);
+  }
+
+  public static long serialize0(long ptr, byte[] buf) {
+    return NATIVE ? BVector0.serialize0(ptr, buf) : JavaEngine.serialize0(ptr, buf);
+  }
+}
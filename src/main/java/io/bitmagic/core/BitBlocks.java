@@ -0,0 +1,101 @@
+package io.bitmagic.core;
+
+import java.util.Arrays;
+
+/**
+ * Operations on 65536-bit blocks stored as <code>long[1024]</code>, used by the Java engine.
+ * Positions are block offsets, ranges are closed.
+ */
+final class BitBlocks {
+  static final int BITS = 65536;
+  static final int WORDS = BITS / 64;
+
+  private BitBlocks() {}
+
+  static void set(long[] b, int pos, boolean v) {
+    if (v)
+      b[pos >>> 6] |= 1L << pos;
+    else
+      b[pos >>> 6] &= ~(1L << pos);
+  }
+
+  static boolean test(long[] b, int pos) {
+    return (b[pos >>> 6] & (1L << pos)) != 0;
+  }
+
+  static void setRange(long[] b, int from, int to, boolean v) {
+    int wf = from >>> 6, wt = to >>> 6;
+    long mf = -1L << from, mt = -1L >>> (63 - (to & 63));
+    if (wf == wt) {
+      long m = mf & mt;
+      b[wf] = v ? b[wf] | m : b[wf] & ~m;
+      return;
+    }
+    b[wf] = v ? b[wf] | mf : b[wf] & ~mf;
+    Arrays.fill(b, wf + 1, wt, v ? -1L : 0L);
+    b[wt] = v ? b[wt] | mt : b[wt] & ~mt;
+  }
+
+  static int count(long[] b) {
+    int c = 0;
+    for (long w : b)
+      c += Long.bitCount(w);
+    return c;
+  }
+
+  static int count(long[] b, int from, int to) {
+    int wf = from >>> 6, wt = to >>> 6;
+    long mf = -1L << from, mt = -1L >>> (63 - (to & 63));
+    if (wf == wt)
+      return Long.bitCount(b[wf] & mf & mt);
+    int c = Long.bitCount(b[wf] & mf) + Long.bitCount(b[wt] & mt);
+    for (int i = wf + 1; i < wt; i++)
+      c += Long.bitCount(b[i]);
+    return c;
+  }
+
+  static int findFirst(long[] b, int from) {
+    int i = from >>> 6;
+    long w = b[i] & (-1L << from);
+    while (w == 0) {
+      if (++i == WORDS)
+        return -1;
+      w = b[i];
+    }
+    return (i << 6) + Long.numberOfTrailingZeros(w);
+  }
+
+  static int findLast(long[] b) {
+    for (int i = WORDS - 1; i >= 0; i--)
+      if (b[i] != 0)
+        return (i << 6) + 63 - Long.numberOfLeadingZeros(b[i]);
+    return -1;
+  }
+
+  static boolean isZero(long[] b) {
+    long acc = 0;
+    for (long w : b)
+      acc |= w;
+    return acc == 0;
+  }
+
+  static boolean isFull(long[] b) {
+    long acc = -1L;
+    for (long w : b)
+      acc &= w;
+    return acc == -1L;
+  }
+
+  /**
+   * Number of runs of equal bits.
+   */
+  static int runs(long[] b) {
+    int t = 0;
+    long carry = b[0] & 1;
+    for (long w : b) {
+      t += Long.bitCount(w ^ ((w << 1) | carry));
+      carry = w >>> 63;
+    }
+    return t + 1;
+  }
+}
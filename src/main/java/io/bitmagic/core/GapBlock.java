@@ -0,0 +1,181 @@
+package io.bitmagic.core;
+
+import java.util.Arrays;
+
+/**
+ * GAP (run-length) encoded 65536-bit block of the Java engine. Runs alternate between 0 and 1 starting with
+ * <code>first</code>, <code>ends[i]</code> is the last position of run <code>i</code>.
+ */
+final class GapBlock {
+  // Beyond this a bit block is smaller
+  static final int MAX_RUNS = 1280;
+
+  boolean first;
+  char[] ends;
+  int n;
+
+  GapBlock(boolean value) {
+    first = value;
+    ends = new char[] { BitBlocks.BITS - 1, 0, 0, 0 };
+    n = 1;
+  }
+
+  GapBlock(boolean first, char[] ends, int n) {
+    this.first = first;
+    this.ends = ends;
+    this.n = n;
+  }
+
+  GapBlock copy() {
+    return new GapBlock(first, Arrays.copyOf(ends, n), n);
+  }
+
+  boolean value(int run) {
+    return first ^ ((run & 1) != 0);
+  }
+
+  private int start(int run) {
+    return run == 0 ? 0 : ends[run - 1] + 1;
+  }
+
+  // Index of the run containing pos
+  private int run(int pos) {
+    int lo = 0, hi = n - 1;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (ends[mid] < pos)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  boolean test(int pos) {
+    return value(run(pos));
+  }
+
+  /**
+   * Sets a bit.
+   * @return false if the block would exceed <code>MAX_RUNS</code>, the block is unchanged then.
+   */
+  boolean set(int pos, boolean v) {
+    int i = run(pos);
+    if (value(i) == v)
+      return true;
+    int start = start(i), end = ends[i];
+    if (start == end) {
+      // a single-bit run joins its neighbours
+      if (i == 0) {
+        remove(0, 1);
+        first = v;
+      }
+      else if (i == n - 1)
+        remove(n - 2, 1);
+      else
+        remove(i - 1, 2);
+    }
+    else if (pos == start) {
+      if (i > 0)
+        ends[i - 1]++;
+      else {
+        if (!insert(0, 1))
+          return false;
+        ends[0] = 0;
+        first = v;
+      }
+    }
+    else if (pos == end) {
+      if (i < n - 1)
+        ends[i]--;
+      else {
+        if (!insert(i + 1, 1))
+          return false;
+        ends[i] = (char)(pos - 1);
+        ends[i + 1] = (char)end;
+      }
+    }
+    else {
+      if (!insert(i, 2))
+        return false;
+      ends[i] = (char)(pos - 1);
+      ends[i + 1] = (char)pos;
+    }
+    return true;
+  }
+
+  private boolean insert(int at, int k) {
+    if (n + k > MAX_RUNS)
+      return false;
+    if (n + k > ends.length)
+      ends = Arrays.copyOf(ends, Math.min(MAX_RUNS, Math.max(n + k, ends.length * 2)));
+    System.arraycopy(ends, at, ends, at + k, n - at);
+    n += k;
+    return true;
+  }
+
+  private void remove(int at, int k) {
+    System.arraycopy(ends, at + k, ends, at, n - at - k);
+    n -= k;
+  }
+
+  int count() {
+    int c = 0;
+    for (int i = first ? 0 : 1; i < n; i += 2)
+      c += ends[i] - start(i) + 1;
+    return c;
+  }
+
+  int count(int from, int to) {
+    int c = 0;
+    for (int i = run(from), pos = from; pos <= to; pos = ends[i++] + 1)
+      if (value(i))
+        c += Math.min(ends[i], to) - pos + 1;
+    return c;
+  }
+
+  int findFirst(int from) {
+    int i = run(from);
+    if (value(i))
+      return from;
+    return i + 1 < n ? ends[i] + 1 : -1;
+  }
+
+  int findLast() {
+    if (value(n - 1))
+      return BitBlocks.BITS - 1;
+    return n > 1 ? ends[n - 2] : -1;
+  }
+
+  long[] toBits(long[] dst) {
+    Arrays.fill(dst, 0);
+    for (int i = first ? 0 : 1; i < n; i += 2)
+      BitBlocks.setRange(dst, start(i), ends[i], true);
+    return dst;
+  }
+
+  /**
+   * Encodes a bit block.
+   * @return GAP block or null if it needs more than <code>maxRuns</code> runs.
+   */
+  static GapBlock fromBits(long[] b, int maxRuns) {
+    int runs = BitBlocks.runs(b);
+    if (runs > maxRuns)
+      return null;
+    char[] ends = new char[runs];
+    int r = 0;
+    long carry = b[0] & 1;
+    for (int i = 0; i < BitBlocks.WORDS; i++) {
+      long w = b[i];
+      long t = w ^ ((w << 1) | carry);
+      carry = w >>> 63;
+      while (t != 0) {
+        // a run starts at this position, the previous one ends before it
+        ends[r++] = (char)((i << 6) + Long.numberOfTrailingZeros(t) - 1);
+        t &= t - 1;
+      }
+    }
+    ends[r] = BitBlocks.BITS - 1;
+    return new GapBlock((b[0] & 1) != 0, ends, runs);
+  }
+}
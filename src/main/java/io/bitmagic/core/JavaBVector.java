@@ -0,0 +1,640 @@
+package io.bitmagic.core;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Bit vector of the Java engine, mirrors the BitMagic block layout: a two-level table of 65536-bit blocks, each
+ * either absent (all zeros), <code>FULL</code> (all ones), a bit block or a GAP block.
+ * <p>
+ * Single-bit updates of different 2^24-bit ranges touch disjoint parts of the table, as with the native vector.
+ * The size they may grow is updated atomically for that reason.
+ */
+final class JavaBVector {
+  // bm::id_max, valid positions are below it
+  static final long ID_MAX = 0xFFFFFFFFL;
+  static final Object FULL = new Object();
+
+  private static final int MAGIC = 0x314a4d42; // "BMJ1"
+  private static final int HEADER = 16;
+  private static final int TYPE_FULL = 0, TYPE_BIT = 1, TYPE_GAP = 2;
+  private static final ThreadLocal<long[]> TEMP = ThreadLocal.withInitial(() -> new long[BitBlocks.WORDS]);
+  private static final AtomicLongFieldUpdater<JavaBVector> SIZE =
+      AtomicLongFieldUpdater.newUpdater(JavaBVector.class, "_size");
+
+  private final boolean _gap;
+  private final Object[][] _top = new Object[256][];
+  private volatile long _size;
+
+  JavaBVector(Strategy stg, long size) {
+    _gap = stg == Strategy.BM_GAP;
+    _size = size;
+  }
+
+  private Object block(int i) {
+    Object[] sub = _top[i >>> 8];
+    return sub == null ? null : sub[i & 255];
+  }
+
+  private void put(int i, Object b) {
+    Object[] sub = _top[i >>> 8];
+    if (sub == null) {
+      if (b == null)
+        return;
+      sub = _top[i >>> 8] = new Object[256];
+    }
+    sub[i & 255] = b;
+  }
+
+  // Positions are unsigned 32-bit, as bm::id_t on the native side
+  private static long pos(long idx) {
+    return idx & ID_MAX;
+  }
+
+  // Block as an owned bit block
+  private static long[] toBits(Object b) {
+    if (b instanceof long[])
+      return (long[])b;
+    long[] w = new long[BitBlocks.WORDS];
+    if (b == FULL)
+      Arrays.fill(w, -1L);
+    else if (b != null)
+      ((GapBlock)b).toBits(w);
+    return w;
+  }
+
+  // Block words, decoded into tmp unless a bit block
+  private static long[] words(Object b, long[] tmp) {
+    if (b instanceof long[])
+      return (long[])b;
+    if (b instanceof GapBlock)
+      return ((GapBlock)b).toBits(tmp);
+    Arrays.fill(tmp, b == FULL ? -1L : 0L);
+    return tmp;
+  }
+
+  private static Object copy(Object b) {
+    if (b instanceof long[])
+      return ((long[])b).clone();
+    if (b instanceof GapBlock)
+      return ((GapBlock)b).copy();
+    return b;
+  }
+
+  private long[] bits(int i) {
+    Object b = block(i);
+    if (b instanceof long[])
+      return (long[])b;
+    long[] w = toBits(b);
+    put(i, w);
+    return w;
+  }
+
+  // Stores a modified bit block in the vector's preferred form
+  private Object pack(long[] w, boolean gap) {
+    if (!gap)
+      return w;
+    GapBlock g = GapBlock.fromBits(w, GapBlock.MAX_RUNS);
+    if (g == null)
+      return w;
+    return g.n > 1 ? g : g.first ? FULL : null;
+  }
+
+  long getSize() { return _size; }
+
+  // Raises the size to at least the given one, concurrent single-bit updates may grow it together
+  void grow(long size) {
+    for (long s = _size; s < size; s = _size)
+      if (SIZE.compareAndSet(this, s, size))
+        return;
+  }
+
+  void setSize(long size) {
+    if (size < _size)
+      setRangeUnchecked(size, ID_MAX, false);
+    _size = size;
+  }
+
+  JavaBVector copy() {
+    JavaBVector r = new JavaBVector(_gap ? Strategy.BM_GAP : Strategy.BM_BIT, _size);
+    for (int t = 0; t < 256; t++) {
+      Object[] sub = _top[t];
+      if (sub == null)
+        continue;
+      Object[] c = r._top[t] = new Object[256];
+      for (int j = 0; j < 256; j++)
+        c[j] = copy(sub[j]);
+    }
+    return r;
+  }
+
+  boolean get(long idx) {
+    idx = pos(idx);
+    Object b = block((int)(idx >>> 16));
+    int pos = (int)idx & 0xFFFF;
+    if (b instanceof long[])
+      return BitBlocks.test((long[])b, pos);
+    if (b == null)
+      return false;
+    return b == FULL || ((GapBlock)b).test(pos);
+  }
+
+  void set(long idx, boolean v) {
+    idx = pos(idx);
+    if (idx >= _size)
+      grow(Math.min(idx + 1, ID_MAX));
+    int i = (int)(idx >>> 16), pos = (int)idx & 0xFFFF;
+    Object b = block(i);
+    if (b instanceof long[]) {
+      BitBlocks.set((long[])b, pos, v);
+      return;
+    }
+    if (b == null) {
+      if (!v)
+        return;
+      b = _gap ? new GapBlock(false) : new long[BitBlocks.WORDS];
+      put(i, b);
+    }
+    else if (b == FULL) {
+      if (v)
+        return;
+      b = _gap ? new GapBlock(true) : toBits(FULL);
+      put(i, b);
+    }
+    if (b instanceof long[])
+      BitBlocks.set((long[])b, pos, v);
+    else if (!((GapBlock)b).set(pos, v)) {
+      long[] w = toBits(b);
+      BitBlocks.set(w, pos, v);
+      put(i, w);
+    }
+  }
+
+  void flip(long idx) {
+    set(idx, !get(idx));
+  }
+
+  int inc(long idx) {
+    boolean carry = get(idx);
+    set(idx, !carry);
+    return carry ? 1 : 0;
+  }
+
+  boolean setConditional(long idx, boolean v, boolean cond) {
+    if (get(idx) != cond || v == cond)
+      return false;
+    set(idx, v);
+    return true;
+  }
+
+  long extract(long start) {
+    long p = findFirst(start);
+    if (p >= 0)
+      set(p, false);
+    return p;
+  }
+
+  void setRange(long left, long right, boolean v) {
+    left = pos(left);
+    right = pos(right);
+    if (left <= right)
+      setRangeUnchecked(left, right, v);
+  }
+
+  // Closed range of positions up to 0xFFFFFFFF
+  private void setRangeUnchecked(long left, long right, boolean v) {
+    int il = (int)(left >>> 16), ir = (int)(right >>> 16);
+    for (int i = il; i <= ir; i++) {
+      int from = i == il ? (int)left & 0xFFFF : 0;
+      int to = i == ir ? (int)right & 0xFFFF : BitBlocks.BITS - 1;
+      if (from == 0 && to == BitBlocks.BITS - 1) {
+        put(i, v ? FULL : null);
+        continue;
+      }
+      Object b = block(i);
+      if (b == (v ? FULL : null))
+        continue;
+      boolean gap = _gap || b instanceof GapBlock;
+      long[] w = bits(i);
+      BitBlocks.setRange(w, from, to, v);
+      if (gap)
+        put(i, pack(w, true));
+    }
+  }
+
+  void setAll() {
+    if (_size > 0)
+      setRangeUnchecked(0, _size - 1, true);
+  }
+
+  void invert() {
+    if (_size == 0)
+      return;
+    long last = _size - 1;
+    for (int i = 0, il = (int)(last >>> 16); i <= il; i++) {
+      Object b = block(i);
+      if (b == null)
+        put(i, FULL);
+      else if (b == FULL)
+        put(i, null);
+      else if (b instanceof GapBlock)
+        ((GapBlock)b).first ^= true;
+      else {
+        long[] w = (long[])b;
+        for (int k = 0; k < w.length; k++)
+          w[k] = ~w[k];
+      }
+    }
+    if ((last & 0xFFFF) != 0xFFFF)
+      setRangeUnchecked(last + 1, last | 0xFFFF, false);
+  }
+
+  void clear(boolean freeMem) {
+    for (int t = 0; t < 256; t++) {
+      Object[] sub = _top[t];
+      if (sub == null)
+        continue;
+      if (freeMem) {
+        _top[t] = null;
+        continue;
+      }
+      for (int j = 0; j < 256; j++) {
+        if (sub[j] instanceof long[])
+          Arrays.fill((long[])sub[j], 0);
+        else
+          sub[j] = null;
+      }
+    }
+  }
+
+  private static int count(Object b) {
+    if (b == null)
+      return 0;
+    if (b instanceof long[])
+      return BitBlocks.count((long[])b);
+    return b == FULL ? BitBlocks.BITS : ((GapBlock)b).count();
+  }
+
+  private static int count(Object b, int from, int to) {
+    if (b == null)
+      return 0;
+    if (b instanceof long[])
+      return BitBlocks.count((long[])b, from, to);
+    return b == FULL ? to - from + 1 : ((GapBlock)b).count(from, to);
+  }
+
+  long count() {
+    long c = 0;
+    for (Object[] sub : _top)
+      if (sub != null)
+        for (Object b : sub)
+          c += count(b);
+    return c;
+  }
+
+  long countInRange(long left, long right) {
+    left = pos(left);
+    right = pos(right);
+    if (left > right)
+      return 0;
+    int il = (int)(left >>> 16), ir = (int)(right >>> 16);
+    int pl = (int)left & 0xFFFF, pr = (int)right & 0xFFFF;
+    if (il == ir)
+      return count(block(il), pl, pr);
+    long c = count(block(il), pl, BitBlocks.BITS - 1) + count(block(ir), 0, pr);
+    for (int i = il + 1; i < ir; i++) {
+      if (_top[i >>> 8] == null) {
+        i |= 255;
+        continue;
+      }
+      c += count(block(i));
+    }
+    return c;
+  }
+
+  private static int findFirst(Object b, int from) {
+    if (b == null)
+      return -1;
+    if (b instanceof long[])
+      return BitBlocks.findFirst((long[])b, from);
+    return b == FULL ? from : ((GapBlock)b).findFirst(from);
+  }
+
+  private static int findLast(Object b) {
+    if (b == null)
+      return -1;
+    if (b instanceof long[])
+      return BitBlocks.findLast((long[])b);
+    return b == FULL ? BitBlocks.BITS - 1 : ((GapBlock)b).findLast();
+  }
+
+  long findFirst(long start) {
+    start = pos(start);
+    int pos = (int)start & 0xFFFF;
+    for (int i = (int)(start >>> 16); i < BitBlocks.BITS; i++, pos = 0) {
+      if (_top[i >>> 8] == null) {
+        i |= 255;
+        continue;
+      }
+      int f = findFirst(block(i), pos);
+      if (f >= 0)
+        return ((long)i << 16) | f;
+    }
+    return -1;
+  }
+
+  long findReverse() {
+    for (int i = BitBlocks.BITS - 1; i >= 0; i--) {
+      if (_top[i >>> 8] == null) {
+        i &= ~255;
+        continue;
+      }
+      int f = findLast(block(i));
+      if (f >= 0)
+        return ((long)i << 16) | f;
+    }
+    return -1;
+  }
+
+  boolean nonEmpty() {
+    return findFirst(0) >= 0;
+  }
+
+  int compare(JavaBVector other) {
+    long[] ta = null, tb = null;
+    for (int i = 0; i < BitBlocks.BITS; i++) {
+      if (_top[i >>> 8] == null && other._top[i >>> 8] == null) {
+        i |= 255;
+        continue;
+      }
+      Object x = block(i), y = other.block(i);
+      if (x == y)
+        continue;
+      if (ta == null) {
+        ta = new long[BitBlocks.WORDS];
+        tb = new long[BitBlocks.WORDS];
+      }
+      long[] a = words(x, ta), b = words(y, tb);
+      for (int k = 0; k < BitBlocks.WORDS; k++) {
+        long d = a[k] ^ b[k];
+        if (d != 0)
+          return (a[k] & d & -d) != 0 ? 1 : -1;
+      }
+    }
+    return 0;
+  }
+
+  void op(JavaBVector src, OpCode code) {
+    for (int t = 0; t < 256; t++) {
+      Object[] a = _top[t], b = src._top[t];
+      if (b == null) {
+        if (code == OpCode.AND)
+          _top[t] = null;
+        continue;
+      }
+      if (a == null && (code == OpCode.AND || code == OpCode.SUB))
+        continue;
+      for (int j = 0; j < 256; j++) {
+        // re-read, the sub-array may have been created by put
+        Object x = _top[t] == null ? null : _top[t][j];
+        Object r = combine(code, x, b[j]);
+        if (r != x)
+          put(t << 8 | j, r);
+      }
+    }
+  }
+
+  private Object combine(OpCode code, Object x, Object y) {
+    switch (code) {
+      case AND:
+        if (x == null || y == FULL)
+          return x;
+        if (y == null)
+          return null;
+        if (x == FULL)
+          return copy(y);
+        break;
+      case OR:
+        if (y == null || x == FULL)
+          return x;
+        if (y == FULL)
+          return FULL;
+        if (x == null)
+          return copy(y);
+        break;
+      case SUB:
+        if (x == null || y == null)
+          return x;
+        if (y == FULL)
+          return null;
+        break;
+      case XOR:
+        if (y == null)
+          return x;
+        if (x == null)
+          return copy(y);
+        if (x == FULL && y == FULL)
+          return null;
+        break;
+    }
+    boolean gap = _gap || x instanceof GapBlock;
+    long[] w = x == y ? toBits(copy(x)) : toBits(x);
+    long[] s = words(y, TEMP.get());
+    long acc = 0;
+    switch (code) {
+      case AND:
+        for (int k = 0; k < BitBlocks.WORDS; k++)
+          acc |= w[k] &= s[k];
+        break;
+      case OR:
+        for (int k = 0; k < BitBlocks.WORDS; k++)
+          acc |= w[k] |= s[k];
+        break;
+      case SUB:
+        for (int k = 0; k < BitBlocks.WORDS; k++)
+          acc |= w[k] &= ~s[k];
+        break;
+      case XOR:
+        for (int k = 0; k < BitBlocks.WORDS; k++)
+          acc |= w[k] ^= s[k];
+        break;
+    }
+    if (acc == 0 && code != OpCode.OR)
+      return null;
+    return pack(w, gap);
+  }
+
+  private static JavaBVector of(int[] arr) {
+    JavaBVector r = new JavaBVector(Strategy.BM_BIT, ID_MAX);
+    for (int a : arr)
+      r.set(a, true);
+    return r;
+  }
+
+  void andArr(int[] arr) { op(of(arr), OpCode.AND); }
+  void orArr(int[] arr) { for (int a : arr) set(a, true); }
+  void xorArr(int[] arr) { for (int a : arr) flip(a); }
+  void subArr(int[] arr) { for (int a : arr) set(a, false); }
+
+  private static int serializedSize(Object b) {
+    if (b == null)
+      return 0;
+    if (b instanceof long[])
+      return 5 + BitBlocks.WORDS * 8;
+    return b == FULL ? 5 : 8 + 2 * ((GapBlock)b).n;
+  }
+
+  BitVectorStat calcStat() {
+    long bitBlocks = 0, gapBlocks = 0, serialized = HEADER, memory = 16 + 4 * 256;
+    for (Object[] sub : _top) {
+      if (sub == null)
+        continue;
+      memory += 16 + 4 * 256;
+      for (Object b : sub) {
+        serialized += serializedSize(b);
+        if (b instanceof long[]) {
+          bitBlocks++;
+          memory += 16 + BitBlocks.WORDS * 8;
+        }
+        else if (b instanceof GapBlock) {
+          gapBlocks++;
+          memory += 24 + 16 + 2 * ((GapBlock)b).ends.length;
+        }
+      }
+    }
+    return new BitVectorStat(bitBlocks, gapBlocks, serialized, memory);
+  }
+
+  BitVectorStat optimize(int mode) {
+    if (mode == OptMode.DEFAULT.ordinal())
+      return calcStat();
+    boolean freeFull = mode >= OptMode.FREE_ALL_BLOCKS.ordinal();
+    boolean compress = mode >= OptMode.GAP_COMPRESS.ordinal();
+    for (int t = 0; t < 256; t++) {
+      Object[] sub = _top[t];
+      if (sub == null)
+        continue;
+      boolean empty = true;
+      for (int j = 0; j < 256; j++) {
+        Object b = sub[j];
+        if (b instanceof long[]) {
+          long[] w = (long[])b;
+          if (BitBlocks.isZero(w))
+            b = null;
+          else if (freeFull && BitBlocks.isFull(w))
+            b = FULL;
+          else if (compress)
+            b = pack(w, true);
+        }
+        else if (b instanceof GapBlock && ((GapBlock)b).n == 1)
+          b = ((GapBlock)b).first ? freeFull ? FULL : b : null;
+        sub[j] = b;
+        empty &= b == null;
+      }
+      if (empty)
+        _top[t] = null;
+    }
+    return calcStat();
+  }
+
+  /**
+   * Serializes in the Java engine format: header (magic, size, block count) followed by
+   * (block index, type, payload) entries. Bit blocks with few runs are written GAP encoded.
+   */
+  long serialize(byte[] buf) {
+    ByteBuffer out = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+    out.putInt(MAGIC).putLong(_size).putInt(0);
+    int blocks = 0;
+    for (int i = 0; i < BitBlocks.BITS; i++) {
+      if (_top[i >>> 8] == null) {
+        i |= 255;
+        continue;
+      }
+      Object b = block(i);
+      if (b instanceof long[]) {
+        long[] w = (long[])b;
+        GapBlock g = GapBlock.fromBits(w, BitBlocks.WORDS * 4 - 2);
+        if (g == null) {
+          out.putInt(i).put((byte)TYPE_BIT);
+          for (long x : w)
+            out.putLong(x);
+          blocks++;
+          continue;
+        }
+        b = g.n > 1 ? g : g.first ? FULL : null;
+      }
+      if (b instanceof GapBlock) {
+        GapBlock g = (GapBlock)b;
+        if (g.n == 1 && !g.first)
+          continue;
+        out.putInt(i).put((byte)TYPE_GAP).put((byte)(g.first ? 1 : 0)).putShort((short)g.n);
+        for (int k = 0; k < g.n; k++)
+          out.putChar(g.ends[k]);
+        blocks++;
+      }
+      else if (b == FULL) {
+        out.putInt(i).put((byte)TYPE_FULL);
+        blocks++;
+      }
+    }
+    out.putInt(12, blocks);
+    return out.position();
+  }
+
+  // ORs a block into block i
+  void merge(int i, Object b) {
+    Object x = block(i);
+    put(i, x == null ? b : combine(OpCode.OR, x, b));
+  }
+
+  /**
+   * Merges (ORs) a vector serialized by {@link #serialize(byte[])} or by the native library, see
+   * {@link NativeFormat}.
+   * @throws IllegalArgumentException if the data is corrupted or uses a native encoding the Java engine can not read.
+   */
+  void deserialize(byte[] buf) {
+    ByteBuffer in = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      if (buf.length < HEADER || in.getInt() != MAGIC) {
+        JavaBVector src = NativeFormat.read((ByteBuffer)in.rewind());
+        grow(src._size);
+        op(src, OpCode.OR);
+        return;
+      }
+      grow(in.getLong());
+      for (int blocks = in.getInt(); blocks > 0; blocks--) {
+        int i = in.getInt();
+        Object b;
+        switch (in.get()) {
+          case TYPE_FULL:
+            b = FULL;
+            break;
+          case TYPE_BIT:
+            long[] w = new long[BitBlocks.WORDS];
+            in.asLongBuffer().get(w);
+            in.position(in.position() + BitBlocks.WORDS * 8);
+            b = w;
+            break;
+          case TYPE_GAP:
+            boolean first = in.get() != 0;
+            int n = in.getChar();
+            char[] ends = new char[n];
+            in.asCharBuffer().get(ends);
+            in.position(in.position() + n * 2);
+            GapBlock g = new GapBlock(first, ends, n);
+            b = n > GapBlock.MAX_RUNS ? g.toBits(new long[BitBlocks.WORDS]) : g;
+            break;
+          default:
+            throw new IllegalArgumentException("Corrupted serialized vector");
+        }
+        merge(i, b);
+      }
+    }
+    catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Corrupted serialized vector", e);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package io.bitmagic.core;
+
+import java.util.Arrays;
+
+/**
+ * Pure-Java implementation of the native calls, used when the JNI library is unavailable.
+ * Vectors and iterators are addressed by handles, like native pointers, so the callers are shared by both engines.
+ */
+final class JavaEngine {
+  static final class Iterator {
+    private final JavaBVector _bv;
+    private long _pos;
+
+    Iterator(JavaBVector bv) {
+      _bv = bv;
+      _pos = bv.findFirst(0);
+    }
+  }
+
+  private static volatile Object[] _table = new Object[64];
+  private static int[] _free = new int[64];
+  private static int _freeCount = 0;
+  private static int _next = 1; // 0 is the null handle
+
+  private JavaEngine() {}
+
+  private static synchronized long register(Object o) {
+    int id;
+    if (_freeCount > 0)
+      id = _free[--_freeCount];
+    else {
+      id = _next++;
+      if (id == _table.length)
+        _table = Arrays.copyOf(_table, id * 2);
+    }
+    _table[id] = o;
+    return id;
+  }
+
+  private static synchronized void unregister(long ptr) {
+    _table[(int)ptr] = null;
+    if (_freeCount == _free.length)
+      _free = Arrays.copyOf(_free, _freeCount * 2);
+    _free[_freeCount++] = (int)ptr;
+  }
+
+  private static JavaBVector bv(long ptr) { return (JavaBVector)_table[(int)ptr]; }
+
+  private static Iterator it(long ptr) { return (Iterator)_table[(int)ptr]; }
+
+  // Vectors
+
+  static long create0(int strategy, long size) { return register(new JavaBVector(Strategy.values()[strategy], size)); }
+  static long copy0(long ptr) { return register(bv(ptr).copy()); }
+  static void dispose0(long ptr) { unregister(ptr); }
+
+  static String version0() { return "0.0.0-java"; }
+  static String copyright0() { return "BitMagicJ pure Java engine"; }
+
+  static long getSize0(long ptr) { return bv(ptr).getSize(); }
+  static void setSize0(long ptr, long size) { bv(ptr).setSize(size); }
+
+  static void set0(long ptr, long idx, boolean bit) { bv(ptr).set(idx, bit); }
+  static int inc0(long ptr, long idx) { return bv(ptr).inc(idx); }
+  static boolean setConditional0(long ptr, long idx, boolean bit, boolean condition) {
+    return bv(ptr).setConditional(idx, bit, condition);
+  }
+  static void flip0(long ptr, long idx) { bv(ptr).flip(idx); }
+  static void setAll0(long ptr) { bv(ptr).setAll(); }
+  static void setRange0(long ptr, long left, long right, boolean bit) { bv(ptr).setRange(left, right, bit); }
+  static void invert0(long ptr) { bv(ptr).invert(); }
+  static void clear0(long ptr, int freeMem) { bv(ptr).clear(freeMem != 0); }
+  static long extract0(long ptr, long start) { return bv(ptr).extract(start); }
+
+  static boolean get0(long ptr, long idx) { return bv(ptr).get(idx); }
+  static long count0(long ptr) { return bv(ptr).count(); }
+  static long countInRange0(long ptr, long left, long right) { return bv(ptr).countInRange(left, right); }
+  static boolean nonEmpty0(long ptr) { return bv(ptr).nonEmpty(); }
+  static long findFirst0(long ptr, long start) { return bv(ptr).findFirst(start); }
+  static long findReverse0(long ptr) { return bv(ptr).findReverse(); }
+
+  static int compare0(long ptr1, long ptr2) { return bv(ptr1).compare(bv(ptr2)); }
+  static BitVectorStat optimize0(long ptr, int optMode) { return bv(ptr).optimize(optMode); }
+  static BitVectorStat calcStat0(long ptr) { return bv(ptr).calcStat(); }
+
+  static void operation0(long dst, long src, int opCode) { bv(dst).op(bv(src), OpCode.values()[opCode]); }
+
+  static void and0(long dst, long src) { bv(dst).op(bv(src), OpCode.AND); }
+  static void or0(long dst, long src) { bv(dst).op(bv(src), OpCode.OR); }
+  static void sub0(long dst, long src) { bv(dst).op(bv(src), OpCode.SUB); }
+  static void xor0(long dst, long src) { bv(dst).op(bv(src), OpCode.XOR); }
+
+  static void andArr0(long dst, int[] arr) { bv(dst).andArr(arr); }
+  static void andArrSorted0(long dst, int[] arr) { bv(dst).andArr(arr); }
+  static void orArr0(long dst, int[] arr) { bv(dst).orArr(arr); }
+  static void xorArr0(long dst, int[] arr) { bv(dst).xorArr(arr); }
+  static void subArr0(long dst, int[] arr) { bv(dst).subArr(arr); }
+
+  static void deserialize0(long ptr, byte[] buf) { bv(ptr).deserialize(buf); }
+  static long serialize0(long ptr, byte[] buf) { return bv(ptr).serialize(buf); }
+
+  // Iterators
+
+  static long iteratorCreate0(long bvPtr) { return register(new Iterator(bv(bvPtr))); }
+  static void iteratorDispose0(long ptr) { unregister(ptr); }
+  static boolean iteratorIsValid0(long ptr) { return it(ptr)._pos >= 0; }
+  static long iteratorGet0(long ptr) { return it(ptr)._pos; }
+
+  static boolean iteratorNext0(long ptr) {
+    Iterator it = it(ptr);
+    if (it._pos >= 0)
+      it._pos = it._bv.findFirst(it._pos + 1);
+    return it._pos >= 0;
+  }
+}
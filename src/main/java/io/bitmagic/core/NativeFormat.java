@@ -0,0 +1,224 @@
+package io.bitmagic.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reader of the serialization format of the native library, lets the Java engine load vectors persisted by it.
+ * <p>
+ * Covers the encodings of 32-bit builds of the library: ID lists, runs of empty and full blocks, plain,
+ * interval, zero-run and sparse bit blocks, and GAP blocks stored as run ends or bit positions, either plain
+ * or Elias gamma coded.
+ */
+final class NativeFormat {
+  // bm::serialization_header_mask
+  private static final int HM_RESIZE = 1 << 1, HM_ID_LIST = 1 << 2, HM_NO_BO = 1 << 3, HM_NO_GAPL = 1 << 4;
+  private static final int GAP_LEVELS = 4;
+
+  // bm::serialization_flags block types
+  private static final int BLOCK_END = 0;
+  private static final int BLOCK_1ZERO = 1, BLOCK_1ONE = 2, BLOCK_8ZERO = 3, BLOCK_8ONE = 4;
+  private static final int BLOCK_16ZERO = 5, BLOCK_16ONE = 6, BLOCK_32ZERO = 7, BLOCK_32ONE = 8;
+  private static final int BLOCK_AZERO = 9, BLOCK_AONE = 10;
+  private static final int BLOCK_BIT = 11, BLOCK_GAP = 14, BLOCK_GAPBIT = 15, BLOCK_ARRBIT = 16;
+  private static final int BLOCK_BIT_INTERVAL = 17, BLOCK_ARRGAP = 18, BLOCK_BIT_1BIT = 19;
+  private static final int BLOCK_GAP_EGAMMA = 20, BLOCK_ARRGAP_EGAMMA = 21, BLOCK_BIT_0RUNS = 22;
+  private static final int BLOCK_ARRGAP_EGAMMA_INV = 23, BLOCK_ARRGAP_INV = 24;
+  // High bit set: the low bits count empty blocks
+  private static final int SHORT_ZERO_RUN = 0x80;
+
+  private static final int BLOCKS = 1 << 16;
+  // bm::set_block_size, native bit blocks are arrays of 32-bit words
+  private static final int WORDS32 = BitBlocks.BITS / 32;
+
+  private NativeFormat() {}
+
+  /**
+   * Decodes a natively serialized vector.
+   * @throws IllegalArgumentException if the data is corrupted or uses an encoding this reader does not cover.
+   */
+  static JavaBVector read(ByteBuffer in) {
+    JavaBVector bv = new JavaBVector(Strategy.BM_BIT, 0);
+    int flags = in.get() & 0xFF;
+    if ((flags & HM_NO_BO) == 0)
+      in.order(in.get() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    if ((flags & HM_ID_LIST) != 0) {
+      if ((flags & HM_RESIZE) != 0)
+        bv.grow(in.getInt() & JavaBVector.ID_MAX);
+      for (long n = in.getInt() & JavaBVector.ID_MAX; n > 0; n--)
+        bv.set(in.getInt() & JavaBVector.ID_MAX, true);
+      return bv;
+    }
+    if ((flags & HM_NO_GAPL) == 0)
+      in.position(in.position() + GAP_LEVELS * 2);
+    if ((flags & HM_RESIZE) != 0)
+      bv.grow(in.getInt() & JavaBVector.ID_MAX);
+
+    for (long i = 0; i < BLOCKS; i++) {
+      int type = in.get() & 0xFF;
+      if ((type & SHORT_ZERO_RUN) != 0) {
+        i += (type & ~SHORT_ZERO_RUN) - 1;
+        continue;
+      }
+      switch (type) {
+        case BLOCK_END:
+        case BLOCK_AZERO:
+          return bv;
+        case BLOCK_1ZERO:
+          break;
+        case BLOCK_8ZERO:
+          i += (in.get() & 0xFF) - 1;
+          break;
+        case BLOCK_16ZERO:
+          i += in.getChar() - 1;
+          break;
+        case BLOCK_32ZERO:
+          i += (in.getInt() & JavaBVector.ID_MAX) - 1;
+          break;
+        case BLOCK_1ONE:
+          bv.merge((int)i, JavaBVector.FULL);
+          break;
+        case BLOCK_8ONE:
+          i = full(bv, i, in.get() & 0xFF);
+          break;
+        case BLOCK_16ONE:
+          i = full(bv, i, in.getChar());
+          break;
+        case BLOCK_32ONE:
+          i = full(bv, i, in.getInt() & JavaBVector.ID_MAX);
+          break;
+        case BLOCK_AONE:
+          full(bv, i, BLOCKS - i);
+          return bv;
+        default:
+          bv.merge((int)i, block(type, in));
+      }
+    }
+    return bv;
+  }
+
+  // Sets count full blocks from i, returns the index of the last one
+  private static long full(JavaBVector bv, long i, long count) {
+    long end = Math.min(i + count, BLOCKS);
+    for (long k = i; k < end; k++)
+      bv.merge((int)k, JavaBVector.FULL);
+    return i + count - 1;
+  }
+
+  private static Object block(int type, ByteBuffer in) {
+    long[] w = new long[BitBlocks.WORDS];
+    switch (type) {
+      case BLOCK_BIT:
+        for (int k = 0; k < WORDS32; k++)
+          or(w, k, in.getInt());
+        return w;
+      case BLOCK_BIT_1BIT:
+        BitBlocks.set(w, in.getChar(), true);
+        return w;
+      case BLOCK_ARRBIT:
+        for (int n = in.getChar(); n > 0; n--)
+          BitBlocks.set(w, in.getChar(), true);
+        return w;
+      case BLOCK_BIT_INTERVAL:
+        int head = in.getChar(), tail = in.getChar();
+        for (int k = head; k <= tail; k++)
+          or(w, k, in.getInt());
+        return w;
+      case BLOCK_BIT_0RUNS:
+        boolean ones = in.get() != 0;
+        for (int k = 0; k < WORDS32; ones = !ones) {
+          int end = k + in.getChar();
+          if (!ones)
+            k = end;
+          else
+            for (; k < end; k++)
+              or(w, k, in.getInt());
+        }
+        return w;
+      case BLOCK_GAP:
+      case BLOCK_GAPBIT:
+      case BLOCK_GAP_EGAMMA:
+        return gap(in, type == BLOCK_GAP_EGAMMA);
+      case BLOCK_ARRGAP:
+      case BLOCK_ARRGAP_INV:
+        for (int n = in.getChar(); n > 0; n--)
+          BitBlocks.set(w, in.getChar(), true);
+        return positions(w, type == BLOCK_ARRGAP_INV);
+      case BLOCK_ARRGAP_EGAMMA:
+      case BLOCK_ARRGAP_EGAMMA_INV:
+        Gamma g = new Gamma(in);
+        int pos = -1;
+        for (int n = g.next(); n > 0; n--)
+          BitBlocks.set(w, pos = pos + g.next(), true);
+        return positions(w, type == BLOCK_ARRGAP_EGAMMA_INV);
+      default:
+        throw new IllegalArgumentException("Unsupported block encoding " + type + " in a natively serialized vector");
+    }
+  }
+
+  // GAP block of the listed bit positions, or of all others
+  private static Object positions(long[] w, boolean inverted) {
+    if (inverted)
+      for (int k = 0; k < BitBlocks.WORDS; k++)
+        w[k] = ~w[k];
+    GapBlock g = GapBlock.fromBits(w, GapBlock.MAX_RUNS);
+    return g == null ? w : g;
+  }
+
+  // ORs 32-bit word k of a native bit block
+  private static void or(long[] w, int k, int word) {
+    w[k >>> 1] |= (word & 0xFFFFFFFFL) << ((k & 1) << 5);
+  }
+
+  // Header word: start value in bit 0, level in bits 1-2, index of the last run end from bit 3. The last end,
+  // always the last bit of the block, is not stored. Gamma coded ends are deltas, the first one plus 1.
+  private static Object gap(ByteBuffer in, boolean gamma) {
+    int head = in.getChar();
+    int n = head >>> 3;
+    if (n == 0)
+      throw new IllegalArgumentException("Corrupted serialized vector");
+    char[] ends = new char[n];
+    Gamma codes = gamma ? new Gamma(in) : null;
+    for (int k = 0, end = -1; k < n - 1; k++) {
+      end = codes == null ? in.getChar() : end + codes.next();
+      if (end > BitBlocks.BITS - 1 || k > 0 && end <= ends[k - 1])
+        throw new IllegalArgumentException("Corrupted serialized vector");
+      ends[k] = (char)end;
+    }
+    if (n > 1 && ends[n - 2] == BitBlocks.BITS - 1)
+      throw new IllegalArgumentException("Corrupted serialized vector");
+    ends[n - 1] = BitBlocks.BITS - 1;
+    GapBlock g = new GapBlock((head & 1) != 0, ends, n);
+    return n > GapBlock.MAX_RUNS ? g.toBits(new long[BitBlocks.WORDS]) : g;
+  }
+
+  /**
+   * Elias gamma codes of bm::bit_in: the bits of 32-bit words from the lowest, a value of 2^N to 2^(N+1)-1 is
+   * N zeros, a one and its low N bits.
+   */
+  private static final class Gamma {
+    private final ByteBuffer _in;
+    private int _word, _used = 32;
+
+    Gamma(ByteBuffer in) { _in = in; }
+
+    int next() {
+      int n = 0;
+      while (bit() == 0)
+        if (++n > 16)
+          throw new IllegalArgumentException("Corrupted serialized vector");
+      int v = 1 << n;
+      for (int k = 0; k < n; k++)
+        v |= bit() << k;
+      return v;
+    }
+
+    private int bit() {
+      if (_used == 32) {
+        _word = _in.getInt();
+        _used = 0;
+      }
+      return _word >>> _used++ & 1;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package io.bitmagic.core;
+
+import java.lang.ref.PhantomReference;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Owns a pointer to a native structure. The pointer is released either explicitly or by the cleaner thread
+ * once the owner becomes phantom reachable, whichever comes first.
+ * Must not reference the owner.
+ */
+final class NativeHandle extends PhantomReference<Object> {
+  enum Kind { VECTOR, ITERATOR }
+
+  private static final AtomicLongFieldUpdater<NativeHandle> PTR =
+      AtomicLongFieldUpdater.newUpdater(NativeHandle.class, "_ptr");
+
+  private final Kind _kind;
+  private volatile long _ptr;
+
+  NativeHandle(Object owner, Kind kind, long ptr) {
+    super(owner, NativeResources.queue());
+    _kind = kind;
+    _ptr = ptr;
+    NativeResources.register(this);
+  }
+
+  Kind kind() { return _kind; }
+
+  boolean isReleased() { return _ptr == 0; }
+
+  long ptr() {
+    long ptr = _ptr;
+    if (ptr == 0)
+      throw new IllegalStateException("Native " + _kind.name().toLowerCase() + " is closed");
+    return ptr;
+  }
+
+  /**
+   * Frees the native structure. Safe to call more than once and from any thread.
+   */
+  synchronized void release() {
+    long ptr = PTR.getAndSet(this, 0);
+    if (ptr == 0)
+      return;
+    switch (_kind) {
+      case VECTOR:
+        BVectorEngine.dispose0(ptr);
+        break;
+      case ITERATOR:
+        BVIteratorEngine.dispose0(ptr);
+        break;
+    }
+    NativeResources.unregister(this);
+  }
+}
@@ -0,0 +1,337 @@
+package io.bitmagic.core;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Loads the BitMagic JNI library.
+ * <p>
+ * The variant matching the CPU instruction set is selected by the <code>bmcpuidj</code> helper library unless
+ * one is forced. Libraries are searched in this order:
+ * <ol>
+ *   <li>the directory given by <code>bitmagic.native.path</code>, loaded in place;</li>
+ *   <li>the classpath (<code>/native/</code> or the root), extracted once into
+ *   <code>bitmagic.native.cache-dir</code> under a directory named after the content hash, so later JVM starts
+ *   reuse the file. The cache directory must be owned by the current user and not writable by others, a cached
+ *   file is hashed again before it is loaded. If either check fails the library is extracted to a private
+ *   temporary file instead;</li>
+ *   <li><code>System.loadLibrary</code>, i.e. <code>java.library.path</code>.</li>
+ * </ol>
+ * Settings are taken from system properties, then from the <code>bitmagic.native</code> section of the
+ * Typesafe config:
+ * <pre>
+ * bitmagic.native {
+ *   path = ""        # directory with the native libraries
+ *   simd = ""        # plain, sse42 or avx2, empty selects by CPUID
+ *   cache-dir = ""   # empty means ${java.io.tmpdir}/bitmagic-${user.name}
+ *   logger = ""      # NativeLoader.Logger implementation class, empty logs through java.util.logging
+ *   engine = auto    # auto, native or java
+ * }
+ * </pre>
+ * Loading happens once, on first use of a bit vector. If it fails, the pure-Java engine is used unless
+ * <code>engine = native</code>.
+ */
+public final class NativeLoader {
+  private static final String CPUID_LIB_NAME = "bmcpuidj";
+  private static final String CONFIG_PATH = "bitmagic.native";
+
+  /**
+   * Library variants by instruction set.
+   */
+  public enum Variant {
+    PLAIN("bmjni"), SSE42("bmjni-sse42"), AVX2("bmjni-avx2");
+
+    private final String _libName;
+
+    Variant(String libName) { _libName = libName; }
+
+    /**
+     * @return library name without platform prefix and suffix.
+     */
+    public String getLibName() { return _libName; }
+
+    static Variant fromLibName(String libName) {
+      for (Variant v : values())
+        if (v._libName.equals(libName))
+          return v;
+      throw new IllegalArgumentException("Unknown library " + libName);
+    }
+  }
+
+  /**
+   * Implementation of the bit vector operations.
+   */
+  public enum Engine {
+    /** BitMagic JNI library. */
+    NATIVE,
+    /** Pure-Java fallback, see <code>bitmagic.native.engine</code>. */
+    JAVA
+  }
+
+  /**
+   * Receives loader messages.
+   */
+  public interface Logger {
+    void info(String msg);
+    void warn(String msg, Throwable t);
+  }
+
+  private static final class JulLogger implements Logger {
+    private final java.util.logging.Logger _log = java.util.logging.Logger.getLogger("io.bitmagic");
+
+    @Override public void info(String msg) { _log.info(msg); }
+    @Override public void warn(String msg, Throwable t) { _log.log(Level.WARNING, msg, t); }
+  }
+
+  private static Logger _logger;
+  private static Engine _engine;
+  private static Variant _variant;
+  private static String _libraryPath;
+
+  private NativeLoader() {}
+
+  /**
+   * Replaces the logger. Takes effect for messages logged after the call, so it must be set before the first
+   * use of a bit vector to see the loading messages.
+   * @param logger new logger.
+   */
+  public static synchronized void setLogger(Logger logger) { _logger = logger; }
+
+  /**
+   * Logger used by the library, java.util.logging unless {@link #setLogger(Logger)} replaced it.
+   * @return current logger.
+   */
+  public static synchronized Logger logger() { return _logger != null ? _logger : new JulLogger(); }
+
+  /**
+   * @return engine in use, <code>null</code> before the first use of a bit vector.
+   */
+  public static synchronized Engine getEngine() { return _engine; }
+
+  /**
+   * @return loaded variant, <code>null</code> before the library is loaded or with the Java engine.
+   */
+  public static synchronized Variant getVariant() { return _variant; }
+
+  /**
+   * @return file the library was loaded from, <code>null</code> before loading or when it was loaded
+   * by <code>System.loadLibrary</code>.
+   */
+  public static synchronized String getLibraryPath() { return _libraryPath; }
+
+  /**
+   * Selects the engine, loading the library unless the Java engine is configured. With <code>auto</code>
+   * the Java engine is used when the library can not be loaded.
+   * @return true for the native engine.
+   * @throws RuntimeException if the native engine is configured and no variant can be loaded.
+   */
+  static synchronized boolean init() {
+    if (_engine != null)
+      return _engine == Engine.NATIVE;
+    Config config = ConfigFactory.load().getConfig(CONFIG_PATH);
+    if (_logger == null)
+      _logger = createLogger(setting(config, "logger"));
+    String engine = setting(config, "engine");
+    if ("java".equalsIgnoreCase(engine))
+      _engine = Engine.JAVA;
+    else if ("native".equalsIgnoreCase(engine)) {
+      load(config);
+      _engine = Engine.NATIVE;
+    }
+    else {
+      try {
+        load(config);
+        _engine = Engine.NATIVE;
+      }
+      catch (RuntimeException | LinkageError e) {
+        _logger.warn("Native library unavailable, using the Java engine.", e);
+        _engine = Engine.JAVA;
+      }
+    }
+    if (_engine == Engine.JAVA)
+      _logger.info("Using the Java engine.");
+    return _engine == Engine.NATIVE;
+  }
+
+  private static void load(Config config) {
+    String dir = setting(config, "path");
+    String cache = setting(config, "cache-dir");
+    Path cacheDir = cache.isEmpty()
+        ? Paths.get(System.getProperty("java.io.tmpdir"), "bitmagic-" + System.getProperty("user.name"))
+        : Paths.get(cache);
+
+    String simd = setting(config, "simd");
+    Variant variant;
+    if (!simd.isEmpty()) {
+      variant = forcedVariant(simd);
+      _logger.info("Forced library variant: " + variant);
+    }
+    else {
+      loadLibrary(CPUID_LIB_NAME, dir, cacheDir);
+      variant = Variant.fromLibName(SimdUtil0.getLibName0());
+    }
+    _libraryPath = loadLibrary(variant.getLibName(), dir, cacheDir);
+    BVector0.init0(0);
+    _variant = variant;
+    _logger.info("Loaded library " + variant.getLibName() + " from "
+        + (_libraryPath != null ? _libraryPath : "java.library.path"));
+  }
+
+  static Variant forcedVariant(String simd) {
+    return Variant.valueOf(simd.toUpperCase(Locale.ROOT));
+  }
+
+  private static String setting(Config config, String key) {
+    String v = System.getProperty(CONFIG_PATH + "." + key);
+    if (v != null)
+      return v;
+    return config.hasPath(key) ? config.getString(key) : "";
+  }
+
+  private static Logger createLogger(String className) {
+    if (className.isEmpty())
+      return new JulLogger();
+    try {
+      return (Logger)Class.forName(className).getDeclaredConstructor().newInstance();
+    }
+    catch (ReflectiveOperationException | ClassCastException e) {
+      throw new RuntimeException("Logger " + className + " can not be created.", e);
+    }
+  }
+
+  // Returns the file loaded, null for System.loadLibrary
+  private static String loadLibrary(String libName, String dir, Path cacheDir) {
+    String osLibName = System.mapLibraryName(libName);
+    if (!dir.isEmpty()) {
+      Path lib = Paths.get(dir, osLibName).toAbsolutePath();
+      if (Files.isRegularFile(lib)) {
+        System.load(lib.toString());
+        return lib.toString();
+      }
+      _logger.info("Library " + lib + " not found.");
+    }
+
+    InputStream is = NativeLoader.class.getResourceAsStream("/native/" + osLibName);
+    if (is == null)
+      is = NativeLoader.class.getResourceAsStream("/" + osLibName);
+    if (is != null) {
+      try {
+        Path lib = extract(is, osLibName, cacheDir);
+        System.load(lib.toString());
+        return lib.toString();
+      }
+      catch (IOException e) {
+        throw new RuntimeException("Library initialization problem.", e);
+      }
+    }
+
+    _logger.info("Library " + osLibName + " not found in classpath, trying java.library.path.");
+    System.loadLibrary(libName);
+    return null;
+  }
+
+  // Returns the cached library, extracting it if the cached copy is missing or differs from the content
+  static Path extract(InputStream is, String osLibName, Path cacheDir) throws IOException {
+    byte[] content;
+    try (InputStream in = is) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[65536];
+      for (int n; (n = in.read(buf)) > 0; )
+        out.write(buf, 0, n);
+      content = out.toByteArray();
+    }
+    String hash = sha256(content);
+    if (!isPrivate(cacheDir)) {
+      // another user could replace the file between the check and System.load
+      Path lib = Files.createTempFile("bitmagic", osLibName);
+      lib.toFile().deleteOnExit();
+      Files.write(lib, content);
+      logger().info("Cache directory " + cacheDir + " is not private, extracted " + osLibName + " to " + lib);
+      return lib;
+    }
+
+    Path lib = cacheDir.resolve(hash).resolve(osLibName);
+    if (Files.isRegularFile(lib, LinkOption.NOFOLLOW_LINKS) && hash.equals(sha256(Files.readAllBytes(lib))))
+      return lib;
+
+    Files.createDirectories(lib.getParent());
+    Path tmp = Files.createTempFile(lib.getParent(), osLibName, ".tmp");
+    try {
+      Files.write(tmp, content);
+      try {
+        Files.move(tmp, lib, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp, lib, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    finally {
+      Files.deleteIfExists(tmp);
+    }
+    logger().info("Extracted " + osLibName + " to " + lib);
+    return lib;
+  }
+
+  // Creates the directory accessible by the owner only if missing, true if it is owned by the current user
+  // and no one else can write to it
+  private static boolean isPrivate(Path dir) {
+    try {
+      return privateDirectory(dir);
+    }
+    catch (IOException e) {
+      logger().warn("Cache directory " + dir + " can not be checked.", e);
+      return false;
+    }
+  }
+
+  private static boolean privateDirectory(Path dir) throws IOException {
+    boolean posix = dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+    if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+      if (posix)
+        Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+      else
+        Files.createDirectories(dir);
+    }
+    if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS))
+      return false;
+    UserPrincipal user = FileSystems.getDefault().getUserPrincipalLookupService()
+        .lookupPrincipalByName(System.getProperty("user.name"));
+    if (!user.equals(Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS)))
+      return false;
+    if (!posix)
+      return true;
+    Set<PosixFilePermission> perms = Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS);
+    return !perms.contains(PosixFilePermission.GROUP_WRITE) && !perms.contains(PosixFilePermission.OTHERS_WRITE);
+  }
+
+  private static String sha256(byte[] content) {
+    try {
+      StringBuilder sb = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-256").digest(content))
+        sb.append(String.format("%02x", b));
+      return sb.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package io.bitmagic.core;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of live native structures. Structures not closed explicitly are freed by a daemon thread
+ * as soon as their owners become unreachable, without waiting for finalization.
+ */
+public final class NativeResources {
+  private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+  // Keeps the handles reachable until released
+  private static final Set<NativeHandle> HANDLES = ConcurrentHashMap.newKeySet();
+  private static final AtomicLong LIVE_VECTORS = new AtomicLong();
+  private static final AtomicLong LIVE_ITERATORS = new AtomicLong();
+  private static final AtomicLong AUTO_RELEASED = new AtomicLong();
+
+  static {
+    Thread cleaner = new Thread(NativeResources::clean, "bitmagic-cleaner");
+    cleaner.setDaemon(true);
+    cleaner.start();
+  }
+
+  private NativeResources() {}
+
+  /**
+   * Number of native bit vectors not yet released.
+   * @return live vector count.
+   */
+  public static long getLiveVectors() { return LIVE_VECTORS.get(); }
+
+  /**
+   * Number of native iterators not yet released.
+   * @return live iterator count.
+   */
+  public static long getLiveIterators() { return LIVE_ITERATORS.get(); }
+
+  /**
+   * Number of native structures released because their owner was garbage collected without being closed.
+   * A growing value points at missing <code>close()</code> calls.
+   * @return released structure count.
+   */
+  public static long getAutoReleased() { return AUTO_RELEASED.get(); }
+
+  static ReferenceQueue<Object> queue() { return QUEUE; }
+
+  static void register(NativeHandle h) {
+    HANDLES.add(h);
+    counter(h).incrementAndGet();
+  }
+
+  static void unregister(NativeHandle h) {
+    if (HANDLES.remove(h))
+      counter(h).decrementAndGet();
+  }
+
+  private static AtomicLong counter(NativeHandle h) {
+    return h.kind() == NativeHandle.Kind.VECTOR ? LIVE_VECTORS : LIVE_ITERATORS;
+  }
+
+  private static void clean() {
+    while (true) {
+      try {
+        Reference<?> ref = QUEUE.remove();
+        NativeHandle h = (NativeHandle)ref;
+        if (HANDLES.contains(h))
+          AUTO_RELEASED.incrementAndGet();
+        h.release();
+      }
+      catch (InterruptedException e) {
+        // daemon thread, keep going
+      }
+      catch (Throwable t) {
+        NativeLoader.logger().warn("Native structure release failed.", t);
+      }
+    }
+  }
+}
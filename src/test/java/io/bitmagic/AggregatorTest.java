@@ -0,0 +1,75 @@
+package io.bitmagic;
+
+import io.bitmagic.core.OpCode;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class AggregatorTest {
+
+  @Test
+  public void combine() {
+    BitVector a = new BitVector(1, 2, 3, 100);
+    BitVector b = new BitVector(2, 3, 4, 200);
+    BitVector c = new BitVector(3, 5, 100, 200);
+    Aggregator agg = new Aggregator().add(a, b, c);
+    BitVector target = new BitVector(7);
+
+    agg.combine(OpCode.OR, target);
+    assertArrayEquals(new long[] { 1, 2, 3, 4, 5, 100, 200 }, target.stream().toArray());
+    agg.combine(OpCode.AND, target);
+    assertArrayEquals(new long[] { 3 }, target.stream().toArray());
+    agg.combine(OpCode.XOR, target);
+    assertArrayEquals(new long[] { 1, 3, 4, 5 }, target.stream().toArray());
+    agg.combine(OpCode.SUB, target);
+    assertArrayEquals(new long[] { 1 }, target.stream().toArray());
+
+    agg.add(new BitVector());
+    agg.combine(OpCode.AND, target);
+    assertTrue(target.isEmpty());
+  }
+
+  @Test
+  public void targetOperand() {
+    BitVector a = new BitVector(1, 2, 3);
+    BitVector b = new BitVector(2, 3, 4);
+    new Aggregator().add(b, a).combine(OpCode.OR, a);
+    assertArrayEquals(new long[] { 1, 2, 3, 4 }, a.stream().toArray());
+    new Aggregator().add(a, b).combine(OpCode.SUB, a);
+    assertArrayEquals(new long[] { 1 }, a.stream().toArray());
+  }
+
+  @Test
+  public void parallelCombine() {
+    Aggregator agg = new Aggregator();
+    for (int i = 0; i < 50; i++)
+      agg.add(new BitVector(i * 1000000L, i * 1000000L + 1, 7));
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      BitVector seq = new BitVector();
+      BitVector par = new BitVector();
+      for (OpCode code : OpCode.values()) {
+        agg.combine(code, seq);
+        agg.combine(code, par, pool);
+        assertEquals(code.name(), 0, seq.compare(par));
+      }
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void andOfOrs() {
+    BitVector target = new BitVector();
+    Aggregator postings = new Aggregator().add(new BitVector(1, 10), new BitVector(20, 30), new BitVector(40));
+    Aggregator filter = new Aggregator().add(new BitVector(10, 11), new BitVector(40, 41));
+    Aggregator.andOfOrs(target, postings, filter);
+    assertArrayEquals(new long[] { 10, 40 }, target.stream().toArray());
+
+    Aggregator.andOfOrs(target, postings, new Aggregator());
+    assertTrue(target.isEmpty());
+  }
+}
@@ -0,0 +1,60 @@
+package io.bitmagic;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class BVCollectionTest {
+
+  @Test
+  public void writeRead() throws IOException {
+    Path file = Files.createTempFile("bvc", ".bin");
+    try {
+      BitVector[] bvs = new BitVector[100];
+      try (BVCollectionWriter w = new BVCollectionWriter(file)) {
+        for (int i = 0; i < bvs.length; i++) {
+          bvs[i] = new BitVector();
+          bvs[i].setRange(i * 1000L, i * 1000L + i, true);
+          assertEquals(i, w.add(bvs[i]));
+        }
+        assertEquals(bvs.length, w.size());
+      }
+
+      try (BVCollectionReader r = new BVCollectionReader(file)) {
+        assertEquals(bvs.length, r.size());
+        for (int i = bvs.length - 1; i >= 0; i -= 7) {
+          assertEquals(i + 1, r.getCount(i));
+          assertEquals(bvs[i].getSize(), r.getSize(i));
+          try (BitVector bv = r.get(i)) {
+            assertEquals(0, bvs[i].compare(bv));
+          }
+        }
+        try (BitVector acc = new BitVector()) {
+          r.read(1, acc);
+          r.read(2, acc);
+          assertEquals(2 + 3, acc.count());
+        }
+      }
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void unfinished() throws IOException {
+    Path file = Files.createTempFile("bvc", ".bin");
+    try {
+      Files.write(file, new byte[100]);
+      new BVCollectionReader(file).close();
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
+}
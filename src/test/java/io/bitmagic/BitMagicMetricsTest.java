@@ -0,0 +1,60 @@
+package io.bitmagic;
+
+import io.bitmagic.core.NativeResources;
+import org.junit.Assume;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class BitMagicMetricsTest {
+
+  @Test
+  public void histogram() {
+    LatencyHistogram h = new LatencyHistogram();
+    assertEquals(0, h.percentileNanos(99));
+    for (int i = 0; i < 99; i++)
+      h.record(100);
+    h.record(1000000);
+    assertEquals(100, h.count());
+    assertEquals((99 * 100 + 1000000) / 100.0, h.meanNanos(), 1e-9);
+    assertEquals(127, h.percentileNanos(50));
+    assertEquals(127, h.percentileNanos(99));
+    assertEquals((1L << 20) - 1, h.percentileNanos(100));
+    h.reset();
+    assertEquals(0, h.count());
+  }
+
+  @Test
+  public void nativeFigures() {
+    BitMagicMetrics m = BitMagicMetrics.getInstance();
+    try (BitVector bv = new BitVector()) {
+      bv.setRange(0, 1000000, true);
+      bv.calcStat();
+      assertEquals(NativeResources.getLiveVectors(), m.getLiveVectors());
+      assertEquals(4, m.getOpCount().size());
+
+      long before = m.getSerializeCount();
+      bv.toArray();
+      assertEquals(BitMagicMetrics.ENABLED ? before + 1 : before, m.getSerializeCount());
+    }
+  }
+
+  // Runs with ./gradlew metricsTest
+  @Test
+  public void enabled() throws Exception {
+    Assume.assumeTrue(BitMagicMetrics.ENABLED);
+    BitMagicMetrics m = BitMagicMetrics.getInstance();
+    try (BitVector bv = new BitVector(1, 2, 3); BitVector other = new BitVector(3, 4)) {
+      assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(BitMagicMetrics.OBJECT_NAME)));
+      long ors = m.getOpCount().get("OR");
+      long serialized = m.getSerializedBytes();
+      bv.or(other);
+      bv.toArray();
+      assertEquals(ors + 1, (long) m.getOpCount().get("OR"));
+      assertTrue(m.getSerializedBytes() > serialized);
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package io.bitmagic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BitQueryTest {
+
+  @Test
+  public void evaluate() {
+    BitVector a = new BitVector(1, 2, 3);
+    BitVector b = new BitVector(3, 4, 5);
+    BitVector c = new BitVector(5, 6, 100000000);
+    BitVector d = new BitVector(2, 6);
+    BitVector e = new BitVector(1, 3, 5, 7, 100000000);
+    BitVector f = new BitVector(7);
+
+    // (A OR B OR C) AND NOT D AND (E XOR F)
+    BitQuery q = BitQuery.anyOf(a, b, c).sub(d).and(BitQuery.of(e).xor(f));
+    try (BitVector r = q.evaluate()) {
+      assertArrayEquals(new long[] { 1, 3, 5, 100000000 }, r.stream().toArray());
+    }
+    assertEquals(4, q.count());
+    assertTrue(q.nonEmpty());
+
+    // operands untouched
+    assertEquals(3, a.count());
+    assertEquals(1, f.count());
+  }
+
+  @Test
+  public void shortCircuit() {
+    BitVector low = new BitVector(1, 2, 3);
+    BitVector high = new BitVector(1000000, 2000000);
+    BitQuery disjoint = BitQuery.allOf(low, high).or(BitQuery.of(new BitVector()));
+    assertEquals(0, disjoint.count());
+    assertFalse(disjoint.nonEmpty());
+    assertTrue(BitQuery.anyOf(new BitVector(), high).nonEmpty());
+    assertEquals(0, BitQuery.of(low).sub(low).count());
+  }
+
+  @Test
+  public void pooledScratch() {
+    try (BitVectorPool pool = new BitVectorPool()) {
+      BitQuery q = BitQuery.of(new BitVector(1, 2)).and(BitQuery.anyOf(new BitVector(2), new BitVector(3)));
+      BitVector target = new BitVector(99);
+      q.evaluateInto(target, pool);
+      assertArrayEquals(new long[] { 2 }, target.stream().toArray());
+      assertEquals(1, q.count(pool));
+      assertTrue(pool.getStat().getHits() > 0);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package io.bitmagic;
+
+import io.bitmagic.core.Strategy;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BitVectorPoolTest {
+
+  @Test
+  public void reuse() {
+    try (BitVectorPool pool = new BitVectorPool()) {
+      BitVector bv = pool.acquire();
+      BitVectorTest.generateBVector(bv, 1000000);
+      pool.release(bv);
+
+      BitVector bv2 = pool.acquire();
+      assertSame(bv, bv2);
+      assertTrue(bv2.isEmpty());
+
+      PoolStat stat = pool.getStat();
+      assertEquals(1, stat.getHits());
+      assertEquals(1, stat.getMisses());
+      assertEquals(0, stat.getRetainedVectors());
+      assertEquals(0, stat.getRetainedBytes());
+      pool.release(bv2);
+    }
+  }
+
+  @Test
+  public void limits() {
+    try (BitVectorPool pool = new BitVectorPool(Strategy.BM_BIT, 1, 2, 0)) {
+      BitVector[] bvs = { pool.acquire(), pool.acquire(), pool.acquire() };
+      for (BitVector bv : bvs) {
+        bv.setRange(0, 1000000, true);
+        pool.release(bv);
+      }
+      PoolStat stat = pool.getStat();
+      assertEquals(3, stat.getMisses());
+      assertEquals(2, stat.getRetainedVectors());
+      assertEquals(2, stat.getTrimmed());
+      assertEquals(1, stat.getDiscarded());
+    }
+  }
+
+  @Test
+  public void closeDrainsAllThreads() throws InterruptedException {
+    BitVectorPool pool = new BitVectorPool();
+    BitVector[] cached = new BitVector[1];
+    Thread t = new Thread(() -> {
+      cached[0] = pool.acquire();
+      pool.release(cached[0]);
+    });
+    t.start();
+    t.join();
+    assertEquals(1, pool.getStat().getRetainedVectors());
+    pool.close();
+    assertEquals(0, pool.getStat().getRetainedVectors());
+    assertEquals(0, pool.getStat().getRetainedBytes());
+    try {
+      cached[0].count();
+      fail("cached vector must be closed");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void endedThreadCacheIsReused() throws InterruptedException {
+    try (BitVectorPool pool = new BitVectorPool()) {
+      BitVector[] cached = new BitVector[1];
+      Thread t = new Thread(() -> {
+        cached[0] = pool.acquire();
+        pool.release(cached[0]);
+      });
+      t.start();
+      t.join();
+      // the first use by another thread moves the ended thread's cache to the shared queue
+      BitVector[] reused = new BitVector[1];
+      Thread next = new Thread(() -> reused[0] = pool.acquire());
+      next.start();
+      next.join();
+      assertSame(cached[0], reused[0]);
+      assertEquals(0, pool.getStat().getRetainedVectors());
+      reused[0].close();
+    }
+  }
+
+  @Test
+  public void releaseClosed() {
+    try (BitVectorPool pool = new BitVectorPool()) {
+      BitVector bv = pool.acquire();
+      bv.close();
+      try {
+        pool.release(bv);
+        fail("closed vector must not be retained");
+      }
+      catch (IllegalStateException e) {
+        // expected
+      }
+      assertEquals(0, pool.getStat().getRetainedVectors());
+    }
+  }
+}
@@ -1,13 +1,25 @@
 package io.bitmagic;
 
+import io.bitmagic.core.BVIterator;
+import io.bitmagic.core.NativeResources;
 import io.bitmagic.core.Strategy;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
 
+import static io.bitmagic.core.AbstractBVector.MAX_BITS;
 import static org.junit.Assert.*;
 
 
@@ -24,9 +36,11 @@ public class BitVectorTest {
     int i, j;
     for (i = 0; i < vectorMax;) {
       // generate bit-blocks
-      for (j = 0; j < 65535 * 8; i += 10, j++) {
-        bv.set(i, true);
+      long[] bits = new long[65535 * 8];
+      for (j = 0; j < bits.length; i += 10, j++) {
+        bits[j] = i;
       }
+      bv.setBits(bits);
       if (i > vectorMax)
         break;
       // generate GAP (compressed) blocks
@@ -136,6 +150,339 @@ public class BitVectorTest {
     assertEquals(bv.count(), bv2.count());
   }
 
+  @Test
+  public void bufferSerialization() throws IOException {
+    BitVector bv = new BitVector();
+    generateBVector(bv, 5000000);
+
+    ByteBuffer direct = ByteBuffer.allocateDirect((int)bv.calcStat().getMaxSerializeMem() + 16);
+    direct.putLong(42L);
+    int len = bv.serialize(direct);
+    assertEquals(8 + len, direct.position());
+    direct.flip();
+    assertEquals(42L, direct.getLong());
+    BitVector bv2 = new BitVector();
+    bv2.deserialize(direct);
+    assertEquals(0, bv.compare(bv2));
+
+    ByteBuffer heap = ByteBuffer.allocate((int)bv.calcStat().getMaxSerializeMem());
+    assertEquals(len, bv.serialize(heap));
+    heap.flip();
+    BitVector bv3 = new BitVector();
+    bv3.deserialize(heap);
+    assertEquals(0, bv.compare(bv3));
+
+    Path file = Files.createTempFile("bv", ".bin");
+    try {
+      bv.save(file);
+      assertEquals(len, Files.size(file));
+      try (BitVector bv4 = BitVector.load(file)) {
+        assertEquals(0, bv.compare(bv4));
+      }
+      // replaces the larger content
+      try (BitVector small = new BitVector(1)) {
+        small.save(file);
+      }
+      try (BitVector bv5 = BitVector.load(file)) {
+        assertEquals(1, bv5.count());
+      }
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void chunkedSerialization() throws IOException {
+    BitVector bv = new BitVector();
+    generateBVector(bv, 5000000);
+    bv.set(MAX_BITS - 1, true);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long written = new ChunkedSerializer(4).write(bv, out);
+    assertEquals(out.size(), written);
+
+    BitVector bv2 = ChunkedSerializer.read(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(bv.count(), bv2.count());
+    assertEquals(0, bv.compare(bv2));
+
+    out.reset();
+    new ChunkedSerializer().write(new BitVector(), out);
+    assertTrue(ChunkedSerializer.read(new ByteArrayInputStream(out.toByteArray())).isEmpty());
+  }
+
+  @Test
+  public void serializedOps() {
+    ByteBuffer a = ByteBuffer.wrap(new BitVector(1, 2, 3, 100000).toArray());
+    ByteBuffer b = ByteBuffer.wrap(new BitVector(2, 3, 4).toArray());
+    assertEquals(4, BitVector.count(a));
+    assertFalse(a.hasRemaining());
+    a.rewind();
+
+    BitVector bv = new BitVector(3, 4, 5);
+    bv.or(a);
+    assertArrayEquals(new long[] { 1, 2, 3, 4, 5, 100000 }, bv.stream().toArray());
+    bv.and(b);
+    assertArrayEquals(new long[] { 2, 3, 4 }, bv.stream().toArray());
+    a.rewind();
+    bv.xor(a);
+    assertArrayEquals(new long[] { 1, 4, 100000 }, bv.stream().toArray());
+    b.rewind();
+    bv.sub(b);
+    assertArrayEquals(new long[] { 1, 100000 }, bv.stream().toArray());
+
+    BitVector empty = new BitVector();
+    b.rewind();
+    empty.and(b);
+    assertTrue(empty.isEmpty());
+    assertFalse(b.hasRemaining());
+  }
+
+  @Test
+  public void diffAndPatch() {
+    BitVector base = new BitVector();
+    generateBVector(base, 5000000);
+    BitVector current = base.copy();
+    current.set(7, !current.get(7));
+    current.setRange(3000000, 3000100, true);
+    current.set(MAX_BITS - 1, true);
+
+    byte[] delta = current.diff(base);
+    assertTrue(delta.length < base.toArray().length / 10);
+
+    BitVector replica = base.copy();
+    replica.applyPatch(delta);
+    assertEquals(0, current.compare(replica));
+
+    assertEquals(0, BitVector.count(ByteBuffer.wrap(base.diff(base))));
+  }
+
+  @Test
+  public void bulkOps() {
+    BitVector bv = new BitVector();
+    long[] idx = { 3, 64, 65535, 65536, 1000000, MAX_BITS - 1 };
+    bv.setBits(idx);
+    assertEquals(idx.length, bv.count());
+    assertTrue(bv.get(MAX_BITS - 1));
+
+    bv.clearBits(new int[] { 0, 3, 64, 7 }, 1, 2);
+    assertFalse(bv.get(3));
+    assertFalse(bv.get(64));
+    assertEquals(idx.length - 2, bv.count());
+
+    bv.flipBits(LongBuffer.wrap(new long[] { 3, 65535, 5 }));
+    assertTrue(bv.get(3));
+    assertFalse(bv.get(65535));
+    assertTrue(bv.get(5));
+
+    boolean[] flags = new boolean[idx.length];
+    bv.testBits(idx, flags);
+    assertArrayEquals(new boolean[] { true, false, false, true, true, true }, flags);
+
+    long[] packed = new long[1];
+    bv.testBits(idx, packed);
+    assertEquals(0b111001L, packed[0]);
+
+    LongBuffer direct = ByteBuffer.allocateDirect(8 * 2).asLongBuffer();
+    direct.put(5).put(6).flip();
+    bv.testBits(direct, packed);
+    assertEquals(0b01L, packed[0]);
+    assertFalse(direct.hasRemaining());
+
+    long count = bv.count();
+    for (long bad : new long[] { -1, MAX_BITS, MAX_BITS + 3 }) {
+      try {
+        bv.setBits(7, bad);
+        fail("accepted " + bad);
+      }
+      catch (IndexOutOfBoundsException expected) {
+      }
+      LongBuffer buf = ByteBuffer.allocateDirect(8 * 2).asLongBuffer();
+      buf.put(7).put(bad).flip();
+      try {
+        bv.flipBits(buf);
+        fail("accepted " + bad);
+      }
+      catch (IndexOutOfBoundsException expected) {
+      }
+      try {
+        bv.testBits(new long[] { 7, bad }, new boolean[2]);
+        fail("accepted " + bad);
+      }
+      catch (IndexOutOfBoundsException expected) {
+      }
+      try {
+        bv.testBits(new long[] { bad }, new long[1]);
+        fail("accepted " + bad);
+      }
+      catch (IndexOutOfBoundsException expected) {
+      }
+    }
+    assertFalse(bv.get(7));
+    assertEquals(count, bv.count());
+  }
+
+  @Test
+  public void primitiveIteration() {
+    long[] idx = { 0, 10, 65536, 3000000, MAX_BITS - 1 };
+    BitVector bv = new BitVector(idx);
+
+    BVIterator it = bv.iterator();
+    long[] buf = new long[3];
+    assertEquals(3, it.decode(buf));
+    assertArrayEquals(new long[] { 0, 10, 65536 }, buf);
+    assertEquals(3000000, it.nextLong());
+    assertEquals(1, it.decode(buf));
+    assertEquals(MAX_BITS - 1, buf[0]);
+    assertEquals(0, it.decode(buf));
+    assertFalse(it.hasNext());
+
+    long[] seen = new long[idx.length];
+    int[] n = { 0 };
+    bv.forEachBit(i -> seen[n[0]++] = i);
+    assertArrayEquals(idx, seen);
+
+    assertArrayEquals(idx, bv.stream().toArray());
+  }
+
+  @Test
+  public void parallelStream() {
+    BitVector bv = new BitVector();
+    generateBVector(bv, 5000000);
+    bv.set(MAX_BITS - 1, true);
+
+    Spliterator.OfLong split = bv.spliterator();
+    assertTrue(split.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+    assertEquals(bv.count(), split.getExactSizeIfKnown());
+    Spliterator.OfLong prefix = split.trySplit();
+    assertNotNull(prefix);
+    assertEquals(bv.count(), prefix.estimateSize() + split.estimateSize());
+
+    assertEquals(bv.count(), bv.parallelStream().count());
+    assertArrayEquals(bv.stream().toArray(), bv.parallelStream().toArray());
+    assertEquals(bv.stream().sum(), bv.parallelStream().sum());
+    assertEquals(0, new BitVector().parallelStream().count());
+  }
+
+  // The cleaner may free structures leaked by other tests at any time. Each one is counted by getAutoReleased()
+  // before it is freed, so the change misses at most the counted ones plus one in flight.
+  private static void assertChange(long expected, long before, long after, long autoReleased) {
+    long change = after - before;
+    long freed = NativeResources.getAutoReleased() - autoReleased + 1;
+    assertTrue("change " + change + ", expected " + expected, change <= expected && change >= expected - freed);
+  }
+
+  // Not closed, left to the cleaner once unreachable
+  private static BitVector unowned(int bits) {
+    BitVector bv = new BitVector();
+    for (int i = 0; i < bits; i++)
+      bv.set(i * 7L, true);
+    return bv;
+  }
+
+  private static void churnGc() {
+    for (int i = 0; i < 64; i++)
+      unowned(1).toArray();
+    System.gc();
+  }
+
+  @Test
+  public void reachableWhileIterating() {
+    long[] n = { 0 };
+    unowned(20000).forEachBit(p -> {
+      if (++n[0] % 2000 == 0)
+        churnGc();
+    });
+    assertEquals(20000, n[0]);
+
+    BVIterator it = unowned(20000).iterator();
+    long[] out = new long[2000];
+    long total = 0;
+    for (int k; (k = it.decode(out)) > 0; total += k)
+      churnGc();
+    assertEquals(20000, total);
+
+    boolean[] values = new boolean[20000];
+    long[] idx = new long[20000];
+    for (int i = 0; i < idx.length; i++)
+      idx[i] = i * 7L;
+    unowned(20000).testBits(idx, values);
+    for (boolean v : values)
+      assertTrue(v);
+  }
+
+  @Test
+  public void nativeResources() {
+    long start = NativeResources.getAutoReleased();
+    long vectors = NativeResources.getLiveVectors();
+    BitVector bv = new BitVector(1, 2, 3);
+    long created = NativeResources.getLiveVectors();
+    assertChange(1, vectors, created, start);
+
+    long auto = NativeResources.getAutoReleased();
+    long iterators = NativeResources.getLiveIterators();
+    try (BVIterator it = bv.iterator()) {
+      assertChange(1, iterators, NativeResources.getLiveIterators(), auto);
+      assertEquals(1, it.nextLong());
+    }
+    assertChange(0, iterators, NativeResources.getLiveIterators(), auto);
+
+    bv.close();
+    bv.close();
+    assertChange(-1, created, NativeResources.getLiveVectors(), start);
+    try {
+      bv.count();
+      fail("closed vector must not be usable");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void parallelCount() {
+    BitVector bv = new BitVector();
+    generateBVector(bv, 100000000);
+    bv.set(MAX_BITS - 1, true);
+    assertEquals(bv.count(), bv.parallelCount());
+    assertEquals(bv.countInRange(12345, 77777777), bv.parallelCountInRange(12345, 77777777));
+    assertEquals(0, new BitVector().parallelCount());
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      assertEquals(3, new BitVector(1, 2, 3).parallelCount(pool));
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void rankSelect() {
+    BitVector bv = new BitVector();
+    generateBVector(bv, 3000000);
+    bv.set(MAX_BITS - 1, true);
+    RankSelectIndex rs = bv.rankSelect();
+    assertSame(rs, bv.rankSelect());
+
+    long count = bv.count();
+    assertEquals(count, rs.count());
+    for (long idx : new long[] { 0, 1, 65535, 65536, 1234567, 2999999, MAX_BITS - 2, MAX_BITS - 1 })
+      assertEquals(bv.countInRange(0, idx), rs.rank(idx));
+    for (long n : new long[] { 1, 2, 1000, count / 2, count - 1, count }) {
+      long pos = rs.select(n);
+      assertTrue(bv.get(pos));
+      assertEquals(n, rs.rank(pos));
+    }
+    assertEquals(MAX_BITS - 1, rs.select(count));
+    assertEquals(-1, rs.select(count + 1));
+    assertEquals(-1, rs.select(0));
+
+    bv.set(0, !bv.get(0));
+    assertFalse(rs.isValid());
+    assertEquals(bv.count(), rs.count());
+    assertTrue(rs.isValid());
+  }
+
   @Test
   public void BitCountTest()
   {
@@ -0,0 +1,151 @@
+package io.bitmagic;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CommandBatchTest {
+
+  @Test
+  public void mixedCommands() {
+    try (BitVector a = new BitVector(); BitVector b = new BitVector()) {
+      CommandBatch batch = new CommandBatch(16);
+      batch.set(a, 1).set(a, 2).set(a, 3).set(b, 10).flip(a, 2);
+      int g1 = batch.get(a, 2);
+      int g2 = batch.get(b, 10);
+      int s1 = batch.setIf(b, 11, true, false);
+      int s2 = batch.setIf(b, 10, true, false);
+      batch.clear(a, 1).clear(a, 3);
+      int c = batch.countInRange(a, 0, 100);
+      assertEquals(12, batch.size());
+      batch.flush();
+
+      assertEquals(0, batch.size());
+      assertEquals(0, batch.result(g1));
+      assertEquals(1, batch.result(g2));
+      assertEquals(1, batch.result(s1));
+      assertEquals(0, batch.result(s2));
+      assertEquals(0, batch.result(c));
+      assertEquals(5, batch.getResults().remaining());
+      assertEquals(0, a.count());
+      assertEquals(2, b.count());
+    }
+  }
+
+  @Test
+  public void matchesDirectCalls() {
+    Random rand = new Random(3);
+    try (BitVector direct = new BitVector(); BitVector batched = new BitVector(); BitVector other = new BitVector()) {
+      CommandBatch batch = new CommandBatch(1000);
+      for (int i = 0; i < 1000; i++) {
+        long idx = rand.nextInt(5000);
+        BitVector target = rand.nextInt(8) == 0 ? other : batched;
+        switch (rand.nextInt(3)) {
+          case 0:
+            batch.set(target, idx);
+            if (target == batched)
+              direct.set(idx, true);
+            break;
+          case 1:
+            batch.clear(target, idx);
+            if (target == batched)
+              direct.set(idx, false);
+            break;
+          default:
+            batch.flip(target, idx);
+            if (target == batched)
+              direct.flip(idx);
+        }
+      }
+      assertTrue(batch.isFull());
+      try {
+        batch.set(batched, 1);
+        fail();
+      }
+      catch (BufferOverflowException e) {
+        // expected
+      }
+      batch.flush();
+      assertEquals(0, direct.compare(batched));
+      assertEquals(direct.count(), batched.count());
+    }
+  }
+
+  @Test
+  public void failedFlush() {
+    try (BitVector a = new BitVector()) {
+      CommandBatch batch = new CommandBatch(16);
+      BitVector closed = new BitVector();
+      int g = batch.set(a, 1).get(a, 1);
+      batch.get(closed, 0);
+      batch.set(a, 2);
+      closed.close();
+      try {
+        batch.flush();
+        fail("Closed vector used");
+      }
+      catch (IllegalStateException e) {
+        // expected
+      }
+      assertEquals(0, batch.size());
+      assertEquals(1, batch.result(g));
+      assertTrue(a.get(1));
+      assertFalse(a.get(2));
+
+      int c = batch.set(a, 3).countInRange(a, 0, 10);
+      batch.flush();
+      assertEquals(2, batch.result(c));
+
+      try {
+        batch.set(a, -1);
+        fail("Negative position accepted");
+      }
+      catch (IndexOutOfBoundsException e) {
+        // expected
+      }
+      try {
+        batch.flip(a, BitVector.MAX_BITS);
+        fail("Position MAX_BITS accepted");
+      }
+      catch (IndexOutOfBoundsException e) {
+        // expected
+      }
+      try {
+        batch.get(a, -1);
+        fail("Negative position accepted");
+      }
+      catch (IndexOutOfBoundsException e) {
+        // expected
+      }
+      try {
+        batch.setIf(a, BitVector.MAX_BITS, true, false);
+        fail("Position MAX_BITS accepted");
+      }
+      catch (IndexOutOfBoundsException e) {
+        // expected
+      }
+      try {
+        batch.countInRange(a, 0, BitVector.MAX_BITS);
+        fail("Position MAX_BITS accepted");
+      }
+      catch (IndexOutOfBoundsException e) {
+        // expected
+      }
+      try {
+        batch.countInRange(a, 10, 5);
+        fail("Reversed range accepted");
+      }
+      catch (IllegalArgumentException e) {
+        // expected
+      }
+      assertEquals(0, batch.size());
+
+      c = batch.countInRange(a, 3, 3);
+      batch.flush();
+      assertEquals(1, batch.result(c));
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package io.bitmagic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentBitVectorTest {
+
+  @Test
+  public void concurrentWriters() throws Exception {
+    int threads = 8;
+    int perThread = 200000;
+    try (ConcurrentBitVector cbv = new ConcurrentBitVector()) {
+      ExecutorService ex = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+          final long base = t;
+          futures.add(ex.submit(() -> {
+            // interleaved positions, every thread allocates blocks all over the vector
+            for (long i = 0; i < perThread; i++)
+              cbv.set(i * 100 * threads + base, true);
+          }));
+        }
+        futures.add(ex.submit(() -> {
+          for (int i = 0; i < 100; i++)
+            assertTrue(cbv.count() <= (long)threads * perThread);
+        }));
+        for (Future<?> f : futures)
+          f.get();
+      }
+      finally {
+        ex.shutdown();
+      }
+      assertEquals((long)threads * perThread, cbv.count());
+      assertEquals((long)threads * perThread, cbv.getModCount());
+      // bits 0..7 are set by the writers, 50 is not
+      assertTrue(cbv.setIf(50, true, false));
+      assertFalse(cbv.setIf(50, true, false));
+
+      try (BitVector snap = cbv.snapshot()) {
+        assertEquals(cbv.count(), snap.count());
+      }
+    }
+  }
+
+  @Test
+  public void readersShareTheVector() throws Exception {
+    try (ConcurrentBitVector cbv = new ConcurrentBitVector(new BitVector(1, 2, 3))) {
+      ExecutorService ex = Executors.newSingleThreadExecutor();
+      try {
+        long[] counted = { -1 };
+        cbv.forEachBit(idx -> {
+          if (counted[0] < 0) {
+            // another whole-vector read must not wait for this one
+            try {
+              counted[0] = ex.submit(cbv::count).get(10, TimeUnit.SECONDS);
+            }
+            catch (Exception e) {
+              throw new AssertionError(e);
+            }
+          }
+        });
+        assertEquals(3, counted[0]);
+      }
+      finally {
+        ex.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void logicalOps() {
+    ConcurrentBitVector a = new ConcurrentBitVector(new BitVector(1, 2, 3));
+    ConcurrentBitVector b = new ConcurrentBitVector(new BitVector(3, 4));
+    a.or(b);
+    assertEquals(4, a.count());
+    b.and(a);
+    assertEquals(2, b.count());
+    a.xor(a);
+    assertFalse(a.nonEmpty());
+  }
+}
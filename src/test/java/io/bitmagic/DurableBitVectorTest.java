@@ -0,0 +1,166 @@
+package io.bitmagic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DurableBitVectorTest {
+  private Path dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("dbv");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void replay() throws IOException {
+    try (DurableBitVector dbv = new DurableBitVector(dir)) {
+      dbv.set(10, true);
+      dbv.setRange(100, 199, true);
+      dbv.flip(150);
+      dbv.set(10, false);
+      try (BitVector other = new BitVector(5, 7, 120)) {
+        dbv.xor(other);
+      }
+      assertEquals(100, dbv.count());
+    }
+    try (DurableBitVector dbv = new DurableBitVector(dir)) {
+      assertEquals(0, dbv.getGeneration());
+      assertEquals(100, dbv.count());
+      assertFalse(dbv.get(10));
+      assertFalse(dbv.get(150));
+      assertFalse(dbv.get(120));
+      assertTrue(dbv.get(7));
+    }
+  }
+
+  @Test
+  public void unsyncedMutationsAreLost() throws IOException {
+    DurableBitVector dbv = new DurableBitVector(dir);
+    dbv.set(1, true);
+    dbv.sync();
+    dbv.set(2, true);
+    // simulate a crash: drop the buffer without syncing
+    dbv.getVector().close();
+    try (DurableBitVector reopened = new DurableBitVector(dir)) {
+      assertTrue(reopened.get(1));
+      assertFalse(reopened.get(2));
+    }
+  }
+
+  @Test
+  public void tornRecordIsDropped() throws IOException {
+    try (DurableBitVector dbv = new DurableBitVector(dir)) {
+      dbv.set(1, true);
+      dbv.set(2, true);
+    }
+    Path log = dir.resolve("log");
+    try (FileChannel ch = FileChannel.open(log, StandardOpenOption.WRITE)) {
+      ch.truncate(ch.size() - 3);
+    }
+    try (DurableBitVector dbv = new DurableBitVector(dir)) {
+      assertTrue(dbv.get(1));
+      assertFalse(dbv.get(2));
+      dbv.set(3, true);
+    }
+    try (DurableBitVector dbv = new DurableBitVector(dir)) {
+      assertEquals(2, dbv.count());
+      assertTrue(dbv.get(3));
+    }
+  }
+
+  @Test
+  public void checkpointCompactsLog() throws IOException {
+    try (DurableBitVector dbv = new DurableBitVector(dir, 4096)) {
+      for (int i = 0; i < 10000; i++)
+        dbv.set(i * 3, true);
+      dbv.sync();
+      assertEquals(1, dbv.getGeneration());
+      assertEquals(0, dbv.getLogBytes());
+      dbv.set(1, true);
+      dbv.sync();
+      assertTrue(dbv.getLogBytes() > 0);
+    }
+    try (DurableBitVector dbv = new DurableBitVector(dir, 4096)) {
+      assertEquals(1, dbv.getGeneration());
+      assertEquals(10001, dbv.count());
+      assertTrue(dbv.get(29997));
+    }
+  }
+
+  @Test
+  public void staleLogIsIgnored() throws IOException {
+    Path log = dir.resolve("log");
+    Path stale = Files.createTempFile(dir, "log", ".old");
+    try (DurableBitVector dbv = new DurableBitVector(dir)) {
+      dbv.set(1, true);
+      dbv.set(2, true);
+      dbv.sync();
+      Files.copy(log, stale, StandardCopyOption.REPLACE_EXISTING);
+      dbv.clear();
+      dbv.checkpoint();
+      assertEquals(1, dbv.getGeneration());
+    }
+    // a crash between the snapshot rename and the log reset leaves the log of the previous generation
+    Files.copy(stale, log, StandardCopyOption.REPLACE_EXISTING);
+    try (DurableBitVector dbv = new DurableBitVector(dir)) {
+      assertEquals(1, dbv.getGeneration());
+      assertEquals(0, dbv.count());
+      assertEquals(0, dbv.getLogBytes());
+      dbv.set(3, true);
+    }
+    try (DurableBitVector dbv = new DurableBitVector(dir)) {
+      assertEquals(1, dbv.count());
+      assertTrue(dbv.get(3));
+    }
+  }
+
+  @Test
+  public void groupCommit() throws Exception {
+    try (DurableBitVector dbv = new DurableBitVector(dir)) {
+      List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        int base = t * 1000;
+        threads.add(new Thread(() -> {
+          try {
+            for (int i = 0; i < 1000; i++) {
+              dbv.set(base + i, true);
+              if (i % 10 == 0)
+                dbv.sync();
+            }
+            dbv.sync();
+          }
+          catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }));
+      }
+      threads.forEach(Thread::start);
+      for (Thread t : threads)
+        t.join();
+    }
+    try (DurableBitVector dbv = new DurableBitVector(dir)) {
+      assertEquals(4000, dbv.count());
+    }
+  }
+}
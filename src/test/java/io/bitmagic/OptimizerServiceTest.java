@@ -0,0 +1,91 @@
+package io.bitmagic;
+
+import com.typesafe.config.ConfigFactory;
+import io.bitmagic.core.OptMode;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OptimizerServiceTest {
+
+  @Test
+  public void thinnedVector() {
+    try (OptimizerService svc = new OptimizerService(0, TimeUnit.SECONDS, 2, OptMode.GAP_COMPRESS);
+         BitVector bv = new BitVector();
+         ConcurrentBitVector cbv = new ConcurrentBitVector()) {
+      svc.register(bv);
+      svc.register(cbv);
+      assertEquals(0, svc.runOnce());
+
+      bv.setRange(0, 10000000, true);
+      bv.setRange(100, 10000000, false);
+      long[] reclaimed = { 0 };
+      svc.setListener((v, before, after) -> {
+        assertSame(bv, v);
+        reclaimed[0] += before.getMemoryUsed() - after.getMemoryUsed();
+      });
+      long bytes = svc.runOnce();
+      assertTrue(bytes > 0);
+      assertEquals(reclaimed[0], bytes);
+      assertEquals(100, bv.count());
+
+      // below the threshold again
+      assertEquals(0, svc.runOnce());
+      OptimizerStat stat = svc.getStat();
+      assertEquals(3, stat.getPasses());
+      assertEquals(1, stat.getOptimized());
+      assertEquals(bytes, stat.getReclaimedBytes());
+      assertEquals(2, stat.getRegistered());
+
+      svc.unregister(cbv);
+      assertEquals(1, svc.getStat().getRegistered());
+    }
+  }
+
+  @Test
+  public void closedVector() {
+    try (OptimizerService svc = new OptimizerService(0, TimeUnit.SECONDS, 1, OptMode.DEFAULT)) {
+      BitVector bv = new BitVector();
+      svc.register(bv);
+      bv.set(1, true);
+      bv.close();
+      svc.runOnce();
+      assertEquals(0, svc.getStat().getRegistered());
+    }
+  }
+
+  @Test
+  public void failingListener() {
+    try (OptimizerService svc = new OptimizerService(0, TimeUnit.SECONDS, 1, OptMode.DEFAULT);
+         BitVector bv = new BitVector();
+         BitVector other = new BitVector()) {
+      svc.register(bv);
+      svc.register(other);
+      svc.setListener((v, before, after) -> { throw new IllegalStateException("listener"); });
+      bv.set(1, true);
+      other.set(1, true);
+      svc.runOnce();
+      OptimizerStat stat = svc.getStat();
+      assertEquals(2, stat.getOptimized());
+      assertEquals(2, stat.getRegistered());
+    }
+  }
+
+  @Test
+  public void config() throws InterruptedException {
+    String conf = "bitmagic.optimizer { interval = 10ms, mutation-threshold = 1, mode = FREE_EMPTY_BLOCKS }";
+    try (OptimizerService svc = new OptimizerService(ConfigFactory.parseString(conf).withFallback(ConfigFactory.load()));
+         BitVector bv = new BitVector()) {
+      svc.register(bv);
+      synchronized (bv) {
+        bv.set(5, true);
+      }
+      long deadline = System.currentTimeMillis() + 5000;
+      while (svc.getStat().getOptimized() == 0 && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+      assertEquals(1, svc.getStat().getOptimized());
+    }
+  }
+}
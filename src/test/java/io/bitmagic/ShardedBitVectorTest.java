@@ -0,0 +1,95 @@
+package io.bitmagic;
+
+import io.bitmagic.core.OpCode;
+import io.bitmagic.core.OptMode;
+import io.bitmagic.core.Strategy;
+import org.junit.Test;
+
+import java.util.PrimitiveIterator;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ShardedBitVectorTest {
+  private static final long FAR = 1L << 50;
+
+  @Test
+  public void sparseShards() {
+    try (ShardedBitVector sbv = new ShardedBitVector()) {
+      sbv.set(5);
+      sbv.set(FAR + 7);
+      sbv.set(Long.MAX_VALUE);
+      sbv.set(FAR + 9, false);
+      assertEquals(3, sbv.getShardCount());
+      assertTrue(sbv.get(FAR + 7));
+      assertFalse(sbv.get(FAR + 8));
+      assertEquals(3, sbv.count());
+      assertEquals(1, sbv.countInRange(6, FAR + 7));
+      assertEquals(FAR + 7, sbv.findFirst(6));
+      assertEquals(Long.MAX_VALUE, sbv.findReverse());
+
+      long[] expected = { 5, FAR + 7, Long.MAX_VALUE };
+      PrimitiveIterator.OfLong it = sbv.iterator();
+      for (long e : expected)
+        assertEquals(e, it.nextLong());
+      assertFalse(it.hasNext());
+    }
+  }
+
+  @Test
+  public void rangesAcrossShards() {
+    try (ShardedBitVector sbv = new ShardedBitVector(Strategy.BM_GAP, 16, ForkJoinPool.commonPool())) {
+      sbv.setRange(60000, 200000, true);
+      assertEquals(4, sbv.getShardCount());
+      assertEquals(140001, sbv.count());
+      assertEquals(100, sbv.countInRange(65500, 65599));
+      sbv.setRange(65536, 131071, false);
+      assertEquals(140001 - 65536, sbv.count());
+      sbv.optimize(OptMode.GAP_COMPRESS);
+      assertEquals(3, sbv.getShardCount());
+      assertEquals(131072, sbv.findFirst(65536));
+
+      // visits the three shards only
+      sbv.set(1L << 40);
+      sbv.setRange(70000, Long.MAX_VALUE, false);
+      assertEquals(4, sbv.getShardCount());
+      assertEquals(65536 - 60000, sbv.count());
+      assertEquals(65535, sbv.findReverse());
+    }
+  }
+
+  @Test
+  public void logicalOps() {
+    for (OpCode code : OpCode.values()) {
+      try (ShardedBitVector a = new ShardedBitVector(Strategy.BM_BIT, 20, ForkJoinPool.commonPool());
+           ShardedBitVector b = new ShardedBitVector(Strategy.BM_BIT, 20, ForkJoinPool.commonPool())) {
+        TreeSet<Long> ra = new TreeSet<>(), rb = new TreeSet<>();
+        for (long i = 0; i < 64; i++) {
+          long pa = i * 300007L, pb = i * 500009L;
+          a.set(pa);
+          ra.add(pa);
+          b.set(pb);
+          rb.add(pb);
+        }
+        a.op(b, code);
+        TreeSet<Long> r = new TreeSet<>(ra);
+        switch (code) {
+          case AND: r.retainAll(rb); break;
+          case OR: r.addAll(rb); break;
+          case SUB: r.removeAll(rb); break;
+          case XOR:
+            r.addAll(rb);
+            TreeSet<Long> both = new TreeSet<>(ra);
+            both.retainAll(rb);
+            r.removeAll(both);
+            break;
+        }
+        assertEquals(code.name(), r.size(), a.count());
+        TreeSet<Long> actual = new TreeSet<>();
+        a.forEachBit(actual::add);
+        assertEquals(code.name(), r, actual);
+      }
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package io.bitmagic;
+
+import io.bitmagic.core.Strategy;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SparseIntVectorTest {
+
+  private static long countIf(long[] values, java.util.function.LongPredicate p) {
+    long n = 0;
+    for (long v : values) {
+      if (p.test(v))
+        n++;
+    }
+    return n;
+  }
+
+  @Test
+  public void setGet() {
+    try (SparseIntVector sv = new SparseIntVector(32, Strategy.BM_GAP)) {
+      sv.set(5, 42);
+      sv.set(100000, -7);
+      sv.set(BitVector.MAX_BITS - 1, Integer.MAX_VALUE);
+      sv.set(6, Integer.MIN_VALUE);
+      assertEquals(42, sv.get(5));
+      assertEquals(-7, sv.get(100000));
+      assertEquals(Integer.MAX_VALUE, sv.get(BitVector.MAX_BITS - 1));
+      assertEquals(Integer.MIN_VALUE, sv.get(6));
+      assertFalse(sv.contains(7));
+      assertEquals(4, sv.count());
+
+      sv.set(5, 0);
+      assertEquals(0, sv.get(5));
+      assertTrue(sv.contains(5));
+      sv.clear(5);
+      assertFalse(sv.contains(5));
+
+      try {
+        sv.set(1, 1L << 40);
+        fail("value must not fit into 32 bits");
+      }
+      catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void rangeSearch() {
+    Random rand = new Random(10L);
+    long[] values = new long[100000];
+    for (int i = 0; i < values.length; i++)
+      values[i] = rand.nextInt(2000) - 1000;
+
+    try (SparseIntVector sv = new SparseIntVector()) {
+      sv.importFrom(1000, values);
+      assertEquals(values.length, sv.count());
+      assertEquals(values[0], sv.get(1000));
+      assertEquals(values[values.length - 1], sv.get(1000 + values.length - 1));
+
+      try (BitVector eq = sv.equal(17)) {
+        assertEquals(countIf(values, v -> v == 17), eq.count());
+        eq.forEachBit(idx -> assertEquals(17, sv.get(idx)));
+      }
+      try (BitVector lt = sv.lessThan(-3)) {
+        assertEquals(countIf(values, v -> v < -3), lt.count());
+      }
+      try (BitVector gt = sv.greaterThan(500)) {
+        assertEquals(countIf(values, v -> v > 500), gt.count());
+      }
+      try (BitVector in = sv.between(-10, 250)) {
+        assertEquals(countIf(values, v -> v >= -10 && v <= 250), in.count());
+      }
+      try (BitVector all = sv.lessOrEqual(Long.MAX_VALUE)) {
+        assertEquals(values.length, all.count());
+      }
+      try (BitVector none = sv.lessThan(Long.MIN_VALUE)) {
+        assertTrue(none.isEmpty());
+      }
+    }
+  }
+}
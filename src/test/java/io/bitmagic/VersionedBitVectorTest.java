@@ -0,0 +1,58 @@
+package io.bitmagic;
+
+import io.bitmagic.core.Strategy;
+import org.junit.Test;
+
+import static io.bitmagic.core.AbstractBVector.MAX_BITS;
+import static org.junit.Assert.*;
+
+public class VersionedBitVectorTest {
+
+  @Test
+  public void snapshotsAreStable() {
+    try (VersionedBitVector vbv = new VersionedBitVector()) {
+      vbv.set(10, true);
+      vbv.setRange(100, 40000000, true);
+
+      ImmutableBitVector v1 = vbv.snapshot();
+      ImmutableBitVector v1again = vbv.snapshot();
+      assertSame(v1, v1again);
+      v1again.close();
+
+      vbv.set(10, false);
+      vbv.set(MAX_BITS - 1, true);
+      vbv.setRange(200, 300, false);
+
+      try (ImmutableBitVector v2 = vbv.snapshot()) {
+        assertNotSame(v1, v2);
+        assertTrue(v1.get(10));
+        assertFalse(v2.get(10));
+        assertEquals(1 + 40000000 - 100 + 1, v1.count());
+        assertEquals(40000000 - 100 + 1 - 101 + 1, v2.count());
+        assertEquals(-1, v1.findFirst(40000001));
+        assertEquals(MAX_BITS - 1, v2.findReverse());
+        assertEquals(101, v2.countInRange(150, 300 + 51));
+      }
+      v1.close();
+    }
+  }
+
+  @Test
+  public void logicalOps() {
+    try (VersionedBitVector vbv = new VersionedBitVector(Strategy.BM_GAP, new BitVector(1, 2, 50000000))) {
+      ImmutableBitVector before = vbv.snapshot();
+      vbv.or(new BitVector(3, 60000000));
+      vbv.and(new BitVector(1, 3, 60000000));
+      vbv.xor(new BitVector(1, 4));
+      vbv.sub(new BitVector(60000000));
+      try (ImmutableBitVector after = vbv.snapshot()) {
+        assertArrayEquals(new long[] { 3, 4 }, after.stream().toArray());
+        assertArrayEquals(new long[] { 1, 2, 50000000 }, before.stream().toArray());
+        try (BitVector bv = after.toBitVector()) {
+          assertEquals(2, bv.count());
+        }
+      }
+      before.close();
+    }
+  }
+}
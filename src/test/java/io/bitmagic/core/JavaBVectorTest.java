@@ -0,0 +1,186 @@
+package io.bitmagic.core;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class JavaBVectorTest {
+  private static final int SPAN = 1 << 20;
+
+  private static void fill(JavaBVector bv, BitSet ref, Random rand, int n) {
+    for (int i = 0; i < n; i++) {
+      int p = rand.nextInt(SPAN);
+      boolean v = rand.nextInt(4) != 0;
+      bv.set(p, v);
+      ref.set(p, v);
+    }
+    int l = rand.nextInt(SPAN), r = Math.min(SPAN - 1, l + rand.nextInt(200000));
+    bv.setRange(l, r, true);
+    ref.set(l, r + 1);
+  }
+
+  private static void assertBits(BitSet ref, JavaBVector bv) {
+    assertEquals(ref.cardinality(), bv.count());
+    assertEquals(ref.isEmpty() ? -1 : ref.length() - 1, bv.findReverse());
+    long p = bv.findFirst(0);
+    for (int i = ref.nextSetBit(0); i >= 0; i = ref.nextSetBit(i + 1)) {
+      assertEquals(i, p);
+      p = bv.findFirst(p + 1);
+    }
+    assertEquals(-1, p);
+  }
+
+  @Test
+  public void gapBlocks() {
+    JavaBVector bv = new JavaBVector(Strategy.BM_GAP, JavaBVector.ID_MAX);
+    BitSet ref = new BitSet();
+    Random rand = new Random(1);
+    // dense runs keep blocks GAP encoded, scattered bits overflow them into bit blocks
+    for (int i = 0; i < 20000; i++) {
+      int p = rand.nextInt(1 << 17);
+      boolean v = rand.nextBoolean();
+      bv.set(p, v);
+      ref.set(p, v);
+      assertEquals(ref.get(p), bv.get(p));
+    }
+    assertBits(ref, bv);
+    assertEquals(ref.get(100, 70000).cardinality(), bv.countInRange(100, 69999));
+  }
+
+  @Test
+  public void logicalOps() {
+    for (Strategy stg : Strategy.values()) {
+      Random rand = new Random(stg.ordinal());
+      for (OpCode code : OpCode.values()) {
+        JavaBVector a = new JavaBVector(stg, JavaBVector.ID_MAX), b = new JavaBVector(stg, JavaBVector.ID_MAX);
+        BitSet ra = new BitSet(), rb = new BitSet();
+        fill(a, ra, rand, 50000);
+        fill(b, rb, rand, 50000);
+        a.op(b, code);
+        switch (code) {
+          case AND: ra.and(rb); break;
+          case OR: ra.or(rb); break;
+          case SUB: ra.andNot(rb); break;
+          case XOR: ra.xor(rb); break;
+        }
+        assertBits(ra, a);
+        assertBits(rb, b);
+      }
+    }
+  }
+
+  @Test
+  public void serialization() {
+    Random rand = new Random(7);
+    JavaBVector bv = new JavaBVector(Strategy.BM_BIT, JavaBVector.ID_MAX);
+    BitSet ref = new BitSet();
+    fill(bv, ref, rand, 100000);
+    byte[] buf = new byte[(int)bv.calcStat().getMaxSerializeMem()];
+    int len = (int)bv.serialize(buf);
+    assertTrue(len <= buf.length);
+
+    JavaBVector copy = new JavaBVector(Strategy.BM_GAP, JavaBVector.ID_MAX);
+    copy.deserialize(java.util.Arrays.copyOf(buf, len));
+    assertBits(ref, copy);
+    assertEquals(0, bv.compare(copy));
+
+    copy.set(SPAN + 5, true);
+    assertEquals(-1, bv.compare(copy));
+    assertEquals(1, copy.compare(bv));
+  }
+
+  private static byte[] bytes(int... v) {
+    byte[] b = new byte[v.length];
+    for (int i = 0; i < v.length; i++)
+      b[i] = (byte)v[i];
+    return b;
+  }
+
+  @Test
+  public void nativeFormat() {
+    // Written by the native library: one-bit block, another, empty block, GAP block, all others empty
+    JavaBVector bv = new JavaBVector(Strategy.BM_BIT, JavaBVector.ID_MAX);
+    bv.deserialize(bytes(0x11, 0x01, 0x13, 0x05, 0x00, 0x13, 0x70, 0x11, 0x01, 0x0e, 0x18, 0x00, 0x3f, 0x0d, 0xa3,
+        0x0d, 0x09));
+    BitSet ref = new BitSet();
+    ref.set(5);
+    ref.set(70000);
+    ref.set(200000, 200100);
+    assertBits(ref, bv);
+
+    // size 10^7, bit positions, empty block, 3 full blocks
+    bv = new JavaBVector(Strategy.BM_GAP, 1000);
+    bv.deserialize(bytes(0x12, 0x01, 0x80, 0x96, 0x98, 0x00, 0x12, 0x07, 0x00, 0x03, 0x00, 0x11, 0x00, 0x12, 0x00,
+        0x90, 0x01, 0xe8, 0x03, 0x00, 0x10, 0x60, 0xea, 0x01, 0x04, 0x03, 0x09));
+    assertEquals(10000000, bv.getSize());
+    ref.clear();
+    for (int p : new int[] { 3, 17, 18, 400, 1000, 4096, 60000 })
+      ref.set(p);
+    ref.set(2 << 16, 5 << 16);
+    assertBits(ref, bv);
+
+    // empty block, gamma coded bit positions, merged with the bits already set
+    bv.deserialize(bytes(0x11, 0x01, 0x01, 0x15, 0xd0, 0x81, 0x25, 0x63, 0x8c, 0x31, 0xc6, 0x18, 0x63, 0x8c, 0x31,
+        0xc6, 0x18, 0x63, 0x8c, 0x31, 0xc6, 0x18, 0x63, 0x8c, 0x31, 0x00, 0x00, 0x00, 0x09));
+    for (int k = 0; k < 30; k++)
+      ref.set(65536 + 100 + k * 5);
+    assertBits(ref, bv);
+    assertEquals(10000000, bv.getSize());
+
+    // SGAP encoded bit block, never written by the library
+    try {
+      bv.deserialize(bytes(0x11, 0x01, 0x0c, 0x00));
+      fail("Unsupported encoding accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertBits(ref, bv);
+    try {
+      bv.deserialize(bytes(0x11, 0x01, 0x0b, 0x00));
+      fail("Truncated bit block accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertBits(ref, bv);
+  }
+
+  @Test
+  public void invertAndOptimize() {
+    JavaBVector bv = new JavaBVector(Strategy.BM_BIT, 1000000);
+    bv.setRange(10, 20, true);
+    bv.invert();
+    assertEquals(1000000 - 11, bv.count());
+    assertEquals(999999, bv.findReverse());
+    assertFalse(bv.get(15));
+
+    bv.setRange(0, 999999, false);
+    BitVectorStat before = bv.calcStat();
+    BitVectorStat after = bv.optimize(OptMode.GAP_COMPRESS.ordinal());
+    assertTrue(after.getMemoryUsed() < before.getMemoryUsed());
+    assertEquals(0, after.getBitBlocks());
+    assertFalse(bv.nonEmpty());
+  }
+
+  @Test
+  public void concurrentGrowth() throws InterruptedException {
+    JavaBVector bv = new JavaBVector(Strategy.BM_BIT, 0);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      // a separate 2^24-bit range per thread
+      long base = (long)t << 24;
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 100000; i++)
+          bv.set(base + i, true);
+      });
+    }
+    for (Thread t : threads)
+      t.start();
+    for (Thread t : threads)
+      t.join();
+    assertEquals((3L << 24) + 100000, bv.getSize());
+    assertEquals(400000, bv.count());
+  }
+}
@@ -0,0 +1,133 @@
+package io.bitmagic.core;
+
+import io.bitmagic.BitVector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class NativeLoaderTest {
+  private static final byte[] LIB = { 0x7f, 'E', 'L', 'F', 1, 2, 3 };
+  private static final String LIB_NAME = System.mapLibraryName("bmtest");
+
+  private Path dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("nl");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  private static Path extract(Path cacheDir) throws IOException {
+    return NativeLoader.extract(new ByteArrayInputStream(LIB), LIB_NAME, cacheDir);
+  }
+
+  @Test
+  public void loaded() {
+    try (BitVector bv = new BitVector(1, 2, 3)) {
+      assertEquals(3, bv.count());
+    }
+    assertNotNull(NativeLoader.getEngine());
+    NativeLoader.Variant variant = NativeLoader.getVariant();
+    if (NativeLoader.getEngine() == NativeLoader.Engine.JAVA) {
+      assertNull(variant);
+      return;
+    }
+    assertNotNull(variant);
+    String path = NativeLoader.getLibraryPath();
+    if (path != null) {
+      assertTrue(Files.isRegularFile(Paths.get(path)));
+      assertTrue(path.endsWith(System.mapLibraryName(variant.getLibName())));
+    }
+  }
+
+  @Test
+  public void variants() {
+    assertEquals(NativeLoader.Variant.AVX2, NativeLoader.Variant.fromLibName("bmjni-avx2"));
+    assertEquals(NativeLoader.Variant.PLAIN, NativeLoader.Variant.fromLibName("bmjni"));
+  }
+
+  @Test
+  public void forcedVariant() {
+    Locale locale = Locale.getDefault();
+    try {
+      // "plain" upper-cases to "PLA\u0130N" in the Turkish locale
+      Locale.setDefault(new Locale("tr", "TR"));
+      assertEquals(NativeLoader.Variant.PLAIN, NativeLoader.forcedVariant("plain"));
+      assertEquals(NativeLoader.Variant.SSE42, NativeLoader.forcedVariant("sse42"));
+      assertEquals(NativeLoader.Variant.AVX2, NativeLoader.forcedVariant("Avx2"));
+    }
+    finally {
+      Locale.setDefault(locale);
+    }
+    try {
+      NativeLoader.forcedVariant("avx512");
+      fail("Unknown variant accepted");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void cacheReuse() throws IOException {
+    Path cacheDir = dir.resolve("cache");
+    Path lib = extract(cacheDir);
+    assertTrue(lib.startsWith(cacheDir));
+    assertArrayEquals(LIB, Files.readAllBytes(lib));
+    if (cacheDir.getFileSystem().supportedFileAttributeViews().contains("posix"))
+      assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(cacheDir)));
+
+    FileTime old = FileTime.fromMillis(0);
+    Files.setLastModifiedTime(lib, old);
+    assertEquals(lib, extract(cacheDir));
+    assertEquals(old, Files.getLastModifiedTime(lib));
+  }
+
+  @Test
+  public void tamperedCache() throws IOException {
+    Path cacheDir = dir.resolve("cache");
+    Path lib = extract(cacheDir);
+    // same size, different content
+    byte[] tampered = LIB.clone();
+    tampered[4] = 9;
+    Files.write(lib, tampered);
+    assertEquals(lib, extract(cacheDir));
+    assertArrayEquals(LIB, Files.readAllBytes(lib));
+  }
+
+  @Test
+  public void sharedCacheDir() throws IOException {
+    if (!dir.getFileSystem().supportedFileAttributeViews().contains("posix"))
+      return;
+    Path cacheDir = Files.createDirectory(dir.resolve("cache"));
+    Files.setPosixFilePermissions(cacheDir, PosixFilePermissions.fromString("rwxrwxrwx"));
+    Path lib = extract(cacheDir);
+    try {
+      assertFalse(lib.startsWith(cacheDir));
+      assertArrayEquals(LIB, Files.readAllBytes(lib));
+      assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(lib)));
+    }
+    finally {
+      Files.delete(lib);
+    }
+  }
+}